@@ -1,6 +1,5 @@
 package de.tubs.ibr.dtn.daemon;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,7 +8,6 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.v4.app.Fragment;
@@ -25,7 +23,7 @@ import android.widget.ListView;
 
 import com.jjoe64.graphview.CustomLabelFormatter;
 import com.jjoe64.graphview.GraphView;
-import com.jjoe64.graphview.GraphView.GraphViewData;
+import com.jjoe64.graphview.GraphViewDataInterface;
 import com.jjoe64.graphview.GraphViewSeries;
 import com.jjoe64.graphview.GraphViewSeries.GraphViewSeriesStyle;
 import com.jjoe64.graphview.LineGraphView;
@@ -37,6 +35,7 @@ import de.tubs.ibr.dtn.daemon.data.CurrentConvergenceLayerStatsLoader;
 import de.tubs.ibr.dtn.service.ControlService;
 import de.tubs.ibr.dtn.service.DaemonService;
 import de.tubs.ibr.dtn.stats.ConvergenceLayerStatsEntry;
+import de.tubs.ibr.dtn.stats.StatsSeries;
 import de.tubs.ibr.dtn.stats.StatsUtils;
 
 public class ConvergenceLayerStatsChartFragment extends Fragment implements CustomLabelFormatter {
@@ -77,50 +76,46 @@ public class ConvergenceLayerStatsChartFragment extends Fragment implements Cust
         }
     };
     
-    private LoaderManager.LoaderCallbacks<Cursor> mGraphLoader = new LoaderManager.LoaderCallbacks<Cursor>() {
+    private LoaderManager.LoaderCallbacks<HashMap<String, StatsSeries>> mGraphLoader = new LoaderManager.LoaderCallbacks<HashMap<String, StatsSeries>>() {
         @Override
-        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        public Loader<HashMap<String, StatsSeries>> onCreateLoader(int id, Bundle args) {
             return new ConvergenceLayerStatsLoader(getActivity(), null);
         }
 
         @Override
-        public void onLoadFinished(Loader<Cursor> loader, Cursor stats) {
+        public void onLoadFinished(Loader<HashMap<String, StatsSeries>> loader, HashMap<String, StatsSeries> stats) {
             // plot the charts
             plotChart(stats, mGraphView);
         }
 
         @Override
-        public void onLoaderReset(Loader<Cursor> loader) {
+        public void onLoaderReset(Loader<HashMap<String, StatsSeries>> loader) {
         }
     };
     
-    private void plotChart(Cursor stats, GraphView chart) {
-        
-        HashMap<String, ArrayList<GraphViewData>> series = new HashMap<String, ArrayList<GraphViewData>>();
-
-        // convert data into an structured array
-        StatsUtils.convertData(getActivity(), stats, series);
+    private void plotChart(HashMap<String, StatsSeries> stats, GraphView chart) {
+        if (stats == null) return;
         
         // get line width in pixels
         Float lineWidth = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 2, getActivity().getResources().getDisplayMetrics());
         
         // add one series for each data-set
-        for (Map.Entry<String, ArrayList<GraphViewData>> entry : series.entrySet()) {
-            ArrayList<GraphViewData> dataset = entry.getValue();
+        for (Map.Entry<String, StatsSeries> entry : stats.entrySet()) {
+            GraphViewDataInterface[] dataset = entry.getValue().getData();
             
             GraphViewSeries gs = mData.get(entry.getKey());
             
             if (gs == null) {
                 int color = getResources().getColor(mColorProvider.getColor(entry.getKey()));
                 GraphViewSeriesStyle style = new GraphViewSeriesStyle(color, lineWidth.intValue());
-                gs = new GraphViewSeries(entry.getKey(), style, dataset.toArray(new GraphViewData[dataset.size()]));
+                gs = new GraphViewSeries(entry.getKey(), style, dataset);
                 mGraphView.addSeries(gs);
                 mData.put(entry.getKey(), gs);
                 
                 // redraw the graph
                 mGraphView.redrawAll();
             } else {
-                gs.resetData(dataset.toArray(new GraphViewData[dataset.size()]));
+                gs.resetData(dataset);
             }
         }
     }
@@ -75,6 +75,7 @@ import de.tubs.ibr.dtn.R;
 import de.tubs.ibr.dtn.api.SingletonEndpoint;
 import de.tubs.ibr.dtn.keyexchange.KeyInformationActivity;
 import de.tubs.ibr.dtn.service.ControlService;
+import de.tubs.ibr.dtn.service.DaemonConfiguration;
 import de.tubs.ibr.dtn.service.DaemonService;
 import de.tubs.ibr.dtn.service.DaemonStorageUtils;
 import de.tubs.ibr.dtn.service.P2pManager;
@@ -547,9 +548,6 @@ public class Preferences extends PreferenceActivity {
 
 		ret.add(KEY_SECURITY_MODE);
 		ret.add(KEY_SECURITY_BAB_KEY);
-		ret.add(KEY_LOG_OPTIONS);
-		ret.add(KEY_LOG_DEBUG_VERBOSITY);
-		ret.add(KEY_LOG_ENABLE_FILE);
 
 		return ret;
 	}
@@ -570,6 +568,11 @@ public class Preferences extends PreferenceActivity {
 				}
 			}
 			
+			/**
+			 * Update the configuration file before the DTN service looks at it
+			 */
+			final boolean configChanged = createConfig(Preferences.this);
+
 			/**
 			 * Forward preference change to the DTN service
 			 */
@@ -735,18 +738,16 @@ public class Preferences extends PreferenceActivity {
 			{
 				Log.d(TAG, "Preference " + key + " has changed");
 				
-				// create configuration file
-				createConfig(Preferences.this);
+				// the BAB key is stored in a separate file with an unchanged path
+				boolean reload = KEY_SECURITY_BAB_KEY.equals(key);
 				
 				// send configuration change to DTN service
-				final Intent intent = new Intent(Preferences.this, DaemonService.class);
-				intent.setAction(DaemonService.ACTION_CONFIGURATION_CHANGED);
-				Preferences.this.startService(intent);
-			}
-			else
-			{
-				// create configuration file
-				createConfig(Preferences.this);
+				if (configChanged || reload) {
+					final Intent intent = new Intent(Preferences.this, DaemonService.class);
+					intent.setAction(DaemonService.ACTION_CONFIGURATION_CHANGED);
+					intent.putExtra(DaemonService.EXTRA_CONFIGURATION_RELOAD, reload);
+					Preferences.this.startService(intent);
+				}
 			}
 		}
 	};
@@ -755,8 +756,9 @@ public class Preferences extends PreferenceActivity {
 	 * Creates config for dtnd in specified path
 	 * 
 	 * @param context
+	 * @return True, if the configuration has changed
 	 */
-	private static void createConfig(Context context)
+	private static boolean createConfig(Context context)
 	{
 		// determine path for the configuration file
 		String configPath = DaemonStorageUtils.getConfigurationFile(context);
@@ -765,32 +767,26 @@ public class Preferences extends PreferenceActivity {
 		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
 		File config = new File(configPath);
 
-		// remove old config file
-		if (config.exists()) {
-			config.delete();
-		}
-
 		try {
-			FileOutputStream writer = context.openFileOutput("config", Context.MODE_PRIVATE);
+			DaemonConfiguration c = new DaemonConfiguration();
 
 			// set EID
-			PrintStream p = new PrintStream(writer);
-			p.println("local_uri = " + Preferences.getEndpoint(context, preferences));
-			p.println("routing = " + preferences.getString(KEY_ROUTING, "default"));
+			c.put("local_uri", Preferences.getEndpoint(context, preferences));
+			c.put("routing", preferences.getString(KEY_ROUTING, "default"));
 
 			// enable traffic stats
-			p.println("stats_traffic = yes");
+			c.put("stats_traffic", "yes");
 
 			// limit max. bundle lifetime to 30 days
-			p.println("limit_lifetime = 2592000");
+			c.put("limit_lifetime", "2592000");
 
 			// limit pre-dated timestamp to 2 weeks
-			p.println("limit_predated_timestamp = 1209600");
+			c.put("limit_predated_timestamp", "1209600");
 
 			// specify a security path for keys
 			File sec_folder = DaemonStorageUtils.getSecurityPath(context);
 			if (!sec_folder.exists() || sec_folder.isDirectory()) {
-				p.println("security_path = " + sec_folder.getPath());
+				c.put("security_path", sec_folder.getPath());
 			}
 
 			String secmode = preferences.getString(KEY_SECURITY_MODE, "disabled");
@@ -813,35 +809,32 @@ public class Preferences extends PreferenceActivity {
 
 				if (bab_key.length() > 0) {
 					// enable security extension: BAB
-					p.println("security_level = 1");
+					c.put("security_level", "1");
 
 					// add BAB key to the configuration
-					p.println("security_bab_default_key = " + bab_file.getPath());
+					c.put("security_bab_default_key", bab_file.getPath());
 				}
 			}
 
 			String timesyncmode = preferences.getString(KEY_TIMESYNC_MODE, "disabled");
 
 			if (timesyncmode.equals("master")) {
-				p.println("time_reference = yes");
-				p.println("time_discovery_announcements = yes");
-				p.println("time_synchronize = no");
-				p.println("time_set_clock = no");
+				c.put("time_reference", "yes");
+				c.put("time_discovery_announcements", "yes");
+				c.put("time_synchronize", "no");
+				c.put("time_set_clock", "no");
 			} else if (timesyncmode.equals("slave")) {
-				p.println("time_reference = no");
-				p.println("time_discovery_announcements = yes");
-				p.println("time_synchronize = yes");
-				p.println("time_set_clock = no");
-				p.println("#time_sigma = 1.001");
-				p.println("#time_psi = 0.9");
-				p.println("#time_sync_level = 0.15");
+				c.put("time_reference", "no");
+				c.put("time_discovery_announcements", "yes");
+				c.put("time_synchronize", "yes");
+				c.put("time_set_clock", "no");
 			}
 
 			// enable fragmentation support
-			p.println("fragmentation = yes");
+			c.put("fragmentation", "yes");
 
 			// set multicast address for discovery
-			p.println("discovery_address = ff02::142 224.0.0.142");
+			c.put("discovery_address", "ff02::142 224.0.0.142");
 
 			String ifaces = "";
 
@@ -854,23 +847,23 @@ public class Preferences extends PreferenceActivity {
 							String iface = key.substring(10, key.length());
 							ifaces = ifaces + " " + iface;
 
-							p.println("net_" + iface + "_type = tcp");
-							p.println("net_" + iface + "_interface = " + iface);
-							p.println("net_" + iface + "_port = 4556");
+							c.put("net_" + iface + "_type", "tcp");
+							c.put("net_" + iface + "_interface", iface);
+							c.put("net_" + iface + "_port", "4556");
 						}
 					}
 				}
 			}
 
-			p.println("net_interfaces = " + ifaces);
+			c.put("net_interfaces", ifaces);
 
 			// add static host for cloud uplink
-			p.println("static1_address = " + __CLOUD_ADDRESS__);
-			p.println("static1_port = " + __CLOUD_PORT__);
-			p.println("static1_uri = " + __CLOUD_EID__);
-			p.println("static1_proto = " + __CLOUD_PROTOCOL__);
-			p.println("static1_immediately = yes");
-			p.println("static1_global = yes");
+			c.put("static1_address", __CLOUD_ADDRESS__);
+			c.put("static1_port", __CLOUD_PORT__);
+			c.put("static1_uri", __CLOUD_EID__.toString());
+			c.put("static1_proto", __CLOUD_PROTOCOL__);
+			c.put("static1_immediately", "yes");
+			c.put("static1_global", "yes");
 
 			String storage_mode = preferences.getString(KEY_STORAGE_MODE, "disk-persistent");
 
@@ -879,7 +872,7 @@ public class Preferences extends PreferenceActivity {
 
 			if ("disk".equals(storage_mode) || "disk-persistent".equals(storage_mode)) {
 				if (blobPath != null) {
-					p.println("blob_path = " + blobPath.getPath());
+					c.put("blob_path", blobPath.getPath());
 				} else {
 					Log.e(TAG, "Internal cache directory is not available");
 				}
@@ -890,33 +883,32 @@ public class Preferences extends PreferenceActivity {
 
 			if (blobPath == null) {
 				// if blocks are processed in memory limit these to 50 MB / 250 MB
-				p.println("limit_blocksize = 250M");
-				p.println("limit_foreign_blocksize = 50M");
+				c.put("limit_blocksize", "250M");
+				c.put("limit_foreign_blocksize", "50M");
 			}
 
 			if ("disk-persistent".equals(storage_mode)) {
 				File bundlePath = DaemonStorageUtils.getStoragePath(context);
 				if (bundlePath != null) {
-					p.println("storage_path = " + bundlePath.getPath());
-					p.println("use_persistent_bundlesets = yes");
+					c.put("storage_path", bundlePath.getPath());
+					c.put("use_persistent_bundlesets", "yes");
 				} else {
 					Log.e(TAG, "External media to store bundles is not mounted");
 				}
 			}
 
 			// enable interface rebind
-			p.println("net_rebind = yes");
+			c.put("net_rebind", "yes");
 			
 			// increase keep-alive timeout to 3 minutes
-			p.println("keepalive_timeout = 180");
+			c.put("keepalive_timeout", "180");
 
-			// flush the write buffer
-			p.flush();
-
-			// close the filehandle
-			writer.close();
+			// only replace the file if the configuration has changed
+			return c.save(config);
 		} catch (IOException e) {
 			Log.e(TAG, "Problem writing config", e);
 		}
+
+		return false;
 	}
 }
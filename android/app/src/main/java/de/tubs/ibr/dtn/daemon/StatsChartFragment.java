@@ -7,7 +7,6 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.v4.app.Fragment;
@@ -24,7 +23,7 @@ import android.widget.ListView;
 
 import com.jjoe64.graphview.CustomLabelFormatter;
 import com.jjoe64.graphview.GraphView;
-import com.jjoe64.graphview.GraphView.GraphViewData;
+import com.jjoe64.graphview.GraphViewDataInterface;
 import com.jjoe64.graphview.GraphViewSeries;
 import com.jjoe64.graphview.GraphViewSeries.GraphViewSeriesStyle;
 import com.jjoe64.graphview.LineGraphView;
@@ -32,10 +31,12 @@ import com.jjoe64.graphview.LineGraphView;
 import de.tubs.ibr.dtn.R;
 import de.tubs.ibr.dtn.daemon.data.CurrentStatsLoader;
 import de.tubs.ibr.dtn.daemon.data.StatsListAdapter;
+import de.tubs.ibr.dtn.daemon.data.StatsListAdapter.RowType;
 import de.tubs.ibr.dtn.daemon.data.StatsLoader;
 import de.tubs.ibr.dtn.service.ControlService;
 import de.tubs.ibr.dtn.service.DaemonService;
 import de.tubs.ibr.dtn.stats.StatsEntry;
+import de.tubs.ibr.dtn.stats.StatsSeries;
 import de.tubs.ibr.dtn.stats.StatsUtils;
 
 public abstract class StatsChartFragment extends Fragment implements CustomLabelFormatter {
@@ -76,38 +77,48 @@ public abstract class StatsChartFragment extends Fragment implements CustomLabel
         }
     };
     
-    private LoaderManager.LoaderCallbacks<Cursor> mGraphLoader = new LoaderManager.LoaderCallbacks<Cursor>() {
+    private LoaderManager.LoaderCallbacks<StatsSeries[]> mGraphLoader = new LoaderManager.LoaderCallbacks<StatsSeries[]>() {
         @Override
-        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-            return new StatsLoader(getActivity());
+        public Loader<StatsSeries[]> onCreateLoader(int id, Bundle args) {
+            int charts_count = mAdapter.getDataRows();
+            
+            // load one column per chart, counters as change per second
+            String[] columns = new String[charts_count];
+            ArrayList<String> rates = new ArrayList<String>();
+            
+            for (int i = 0; i < charts_count; i++) {
+                int position = mAdapter.getDataMapPosition(i);
+                columns[i] = StatsListAdapter.getRowColumn(position);
+                
+                if (StatsListAdapter.getRowType(position).equals(RowType.RELATIVE)) {
+                    rates.add(columns[i]);
+                }
+            }
+            
+            return new StatsLoader(getActivity(), columns, rates.toArray(new String[rates.size()]));
         }
 
         @Override
-        public void onLoadFinished(Loader<Cursor> loader, Cursor stats) {
+        public void onLoadFinished(Loader<StatsSeries[]> loader, StatsSeries[] stats) {
             // plot the charts
             plotChart(stats, mGraphView);
         }
 
         @Override
-        public void onLoaderReset(Loader<Cursor> loader) {
+        public void onLoaderReset(Loader<StatsSeries[]> loader) {
         }
     };
     
-    private void plotChart(Cursor stats, GraphView chart) {
+    private void plotChart(StatsSeries[] stats, GraphView chart) {
         if (stats == null) return;
         int charts_count = mAdapter.getDataRows();
         
-        ArrayList<ArrayList<GraphViewData>> data = new ArrayList<ArrayList<GraphViewData>>(charts_count);
-        
-        // convert data into an structured array
-        StatsUtils.convertData(getActivity(), stats, data, mAdapter);
-        
         // get line width in pixels
         Float lineWidth = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 2, getActivity().getResources().getDisplayMetrics());
         
         // add one series for each data-set
         for (int i = 0; i < charts_count; i++) {
-            ArrayList<GraphViewData> dataset = data.get(i);
+            GraphViewDataInterface[] dataset = stats[i].getData();
             
             GraphViewSeries gs = mData.get(i);
             
@@ -115,14 +126,14 @@ public abstract class StatsChartFragment extends Fragment implements CustomLabel
                 GraphViewSeriesStyle style = new GraphViewSeriesStyle(getResources().getColor(mAdapter.getDataColor(i)), lineWidth.intValue());
                 
                 String text = StatsListAdapter.getRowTitle(getActivity(), i);
-                gs = new GraphViewSeries(text, style, dataset.toArray(new GraphViewData[dataset.size()]));
+                gs = new GraphViewSeries(text, style, dataset);
                 mGraphView.addSeries(gs);
                 mData.setValueAt(i, gs);
                 
                 // redraw the graph
                 mGraphView.redrawAll();
             } else {
-                gs.resetData(dataset.toArray(new GraphViewData[dataset.size()]));
+                gs.resetData(dataset);
             }
         }
     }
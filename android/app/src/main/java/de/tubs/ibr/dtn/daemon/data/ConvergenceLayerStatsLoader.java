@@ -1,28 +1,56 @@
 package de.tubs.ibr.dtn.daemon.data;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.HashMap;
 
-import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
+import android.net.Uri;
 import android.support.v4.content.AsyncTaskLoader;
 import android.util.Log;
 import de.tubs.ibr.dtn.stats.ConvergenceLayerStatsEntry;
 import de.tubs.ibr.dtn.stats.StatsContentProvider;
+import de.tubs.ibr.dtn.stats.StatsSeries;
 
-@SuppressLint("SimpleDateFormat")
-public class ConvergenceLayerStatsLoader extends AsyncTaskLoader<Cursor> {
+public class ConvergenceLayerStatsLoader extends AsyncTaskLoader<HashMap<String, StatsSeries>> {
     
     private static final String TAG = "ClStatsLoader";
     
+    // time window of the series and width of one point in milliseconds
+    private static final long WINDOW = 86400000L;
+    private static final long BUCKET_INTERVAL = 900000L;
+    
+    // points of a window including partial buckets at both ends
+    private static final int CAPACITY = (int)(WINDOW / BUCKET_INTERVAL) + 2;
+    
+    private static final String[] PROJECTION = new String[] {
+        ConvergenceLayerStatsEntry.TIMESTAMP,
+        ConvergenceLayerStatsEntry.CONVERGENCE_LAYER,
+        ConvergenceLayerStatsEntry.DATA_TAG,
+        ConvergenceLayerStatsEntry.DATA_VALUE
+    };
+    
     private Boolean mStarted = false;
-    private Cursor mData = null;
+    private HashMap<String, StatsSeries> mData = null;
     private String mConvergenceLayer = null;
+    
+    // one series per convergence-layer and tag, only modified on the main thread
+    private final HashMap<String, StatsSeries> mSeries = new HashMap<String, StatsSeries>();
+    
+    // rows loaded in the background and not merged into the series yet
+    private Update mPending = null;
+    
+    // start of the last bucket merged into the series
+    private volatile long mLastTimestamp = 0L;
+    
+    private static class Update {
+        public long limit;
+        public long[] timestamps;
+        public String[] keys;
+        public double[] values;
+    }
 
     public ConvergenceLayerStatsLoader(Context context, String convergencecayer) {
         super(context);
@@ -31,29 +59,20 @@ public class ConvergenceLayerStatsLoader extends AsyncTaskLoader<Cursor> {
     }
     
     @Override
-    public void deliverResult(Cursor data) {
-        if (isReset()) {
-        	onReleaseResources(data);
-        	data = null;
-        }
+    public void deliverResult(HashMap<String, StatsSeries> data) {
+        if (isReset()) return;
         
-        Cursor oldData = mData;
+        // merge new rows into the series
+        merge();
+        
+        // deliver a new object, the loader manager ignores an already delivered one
+        if (data != null) data = new HashMap<String, StatsSeries>(mSeries);
         mData = data;
         
         if (isStarted()) {
             super.deliverResult(data);
         }
-        
-        if (oldData != null && oldData != data) {
-        	onReleaseResources(oldData);
-        }
     }
-    
-    @Override
-	public void onCanceled(Cursor data) {
-		super.onCanceled(data);
-		onReleaseResources(data);
-	}
 
     @Override
     protected void onReset() {
@@ -61,7 +80,12 @@ public class ConvergenceLayerStatsLoader extends AsyncTaskLoader<Cursor> {
     	
         onStopLoading();
         
-        onReleaseResources(mData);
+        synchronized (this) {
+            mPending = null;
+        }
+        
+        mSeries.clear();
+        mLastTimestamp = 0L;
         mData = null;
         
         if (mStarted) {
@@ -93,51 +117,94 @@ public class ConvergenceLayerStatsLoader extends AsyncTaskLoader<Cursor> {
     }
 
     @Override
-    public Cursor loadInBackground() {
-        final DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        
+    public HashMap<String, StatsSeries> loadInBackground() {
         // generate a time limit (24 hours)
-        Calendar cal = Calendar.getInstance();
-        cal.roll(Calendar.DATE, -1);
-        String timestamp_limit = formatter.format(cal.getTime());
+        long limit = System.currentTimeMillis() - WINDOW;
+        
+        // only load the last known bucket and newer ones
+        String timestamp_limit = String.valueOf(Math.max(limit, mLastTimestamp));
+        
+        // load the transfer rate of each tag
+        Uri uri = StatsContentProvider.CL_STATS_SERIES_URI.buildUpon()
+                .appendQueryParameter(StatsContentProvider.PARAM_BUCKET, String.valueOf(BUCKET_INTERVAL))
+                .appendQueryParameter(StatsContentProvider.PARAM_RATE, ConvergenceLayerStatsEntry.DATA_VALUE)
+                .build();
 
+        Cursor c = null;
         try {
             if (mConvergenceLayer == null) {
-                // limit to specific download
-            	
-                // limit to specific download
-            	return getContext().getContentResolver().query(
-            			StatsContentProvider.CL_STATS_URI,
-                        ConvergenceLayerStatsEntry.PROJECTION,
+            	c = getContext().getContentResolver().query(
+            			uri,
+                        PROJECTION,
                         ConvergenceLayerStatsEntry.TIMESTAMP + " >= ?",
                         new String[] { timestamp_limit },
                         ConvergenceLayerStatsEntry.TIMESTAMP + " ASC");
             } else {
-                // limit to specific download
-            	return getContext().getContentResolver().query(
-            			StatsContentProvider.CL_STATS_URI,
-                        ConvergenceLayerStatsEntry.PROJECTION,
+                // limit to specific convergence-layer
+            	c = getContext().getContentResolver().query(
+            			uri,
+                        PROJECTION,
                         ConvergenceLayerStatsEntry.TIMESTAMP + " >= ? AND " + ConvergenceLayerStatsEntry.CONVERGENCE_LAYER + " = ?",
                         new String[] { timestamp_limit, mConvergenceLayer },
                         ConvergenceLayerStatsEntry.TIMESTAMP + " ASC");
             }
+            
+            if (c == null) return null;
+            
+            Update u = new Update();
+            u.limit = limit;
+            u.timestamps = new long[c.getCount()];
+            u.keys = new String[c.getCount()];
+            u.values = new double[c.getCount()];
+            
+            while (c.moveToNext()) {
+                int row = c.getPosition();
+                u.timestamps[row] = c.getLong(0);
+                u.keys[row] = c.getString(1) + "|" + c.getString(2);
+                u.values[row] = c.isNull(3) ? Double.NaN : c.getDouble(3);
+            }
+            
+            synchronized (this) {
+                mPending = u;
+            }
+            
+            return mSeries;
         } catch (Exception e) {
             Log.e(TAG, "loadInBackground() failed", e);
+        } finally {
+            if (c != null) c.close();
         }
         
         return null;
     }
     
-    /**
-     * Helper function to take care of releasing resources associated
-     * with an actively loaded data set.
-     */
-    protected void onReleaseResources(Cursor data) {
-    	if (data == null) return;
-    	
-        // For a simple List<> there is nothing to do.  For something
-        // like a Cursor, we would close it here.
-    	data.close();
+    private void merge() {
+        Update u = null;
+        synchronized (this) {
+            u = mPending;
+            mPending = null;
+        }
+        
+        if (u == null) return;
+        
+        for (int row = 0; row < u.timestamps.length; row++) {
+            mLastTimestamp = Math.max(mLastTimestamp, u.timestamps[row]);
+            
+            if (Double.isNaN(u.values[row])) continue;
+            
+            StatsSeries series = mSeries.get(u.keys[row]);
+            if (series == null) {
+                series = new StatsSeries(CAPACITY);
+                mSeries.put(u.keys[row], series);
+            }
+            
+            series.put(u.timestamps[row] / 1000.0, u.values[row]);
+        }
+        
+        // drop points which left the time window
+        for (StatsSeries series : mSeries.values()) {
+            series.trim(u.limit / 1000.0);
+        }
     }
 
     private BroadcastReceiver _receiver = new BroadcastReceiver() {
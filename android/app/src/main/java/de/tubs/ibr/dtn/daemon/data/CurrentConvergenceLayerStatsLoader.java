@@ -1,44 +1,52 @@
 package de.tubs.ibr.dtn.daemon.data;
 
-import java.util.ArrayList;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeSet;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.RemoteException;
-import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.Loader;
+import android.util.Log;
 import de.tubs.ibr.dtn.service.ControlService;
+import de.tubs.ibr.dtn.service.StatsFeed;
+import de.tubs.ibr.dtn.service.StatsListener;
 import de.tubs.ibr.dtn.stats.ConvergenceLayerStatsEntry;
 
-public class CurrentConvergenceLayerStatsLoader extends AsyncTaskLoader<List<ConvergenceLayerStatsEntry>> {
-    
+public class CurrentConvergenceLayerStatsLoader extends Loader<List<ConvergenceLayerStatsEntry>> {
+
+    private static final String TAG = "CurrentConvergenceLayerStatsLoader";
+
+    // time between two live updates in milliseconds
+    private static final long UPDATE_INTERVAL = 1000L;
+
     private ControlService mService = null;
-    private Boolean mStarted = false;
+    private Boolean mSubscribed = false;
     private List<ConvergenceLayerStatsEntry> mData = null;
-    private Handler mHandler = null;
+    private final Handler mHandler = new Handler();
     private String mConvergenceLayer = null;
 
+    // current values as bundle of convergence-layers with a bundle of data tags each
+    private Bundle mValues = null;
+
     public CurrentConvergenceLayerStatsLoader(Context context, ControlService service, String convergencelayer) {
         super(context);
         mService = service;
         mConvergenceLayer = convergencelayer;
-        setUpdateThrottle(250);
     }
-    
+
     @Override
     public void deliverResult(List<ConvergenceLayerStatsEntry> data) {
         if (isReset()) {
             mData = null;
             return;
         }
-        
+
         mData = data;
-        
+
         if (isStarted()) {
             super.deliverResult(data);
         }
@@ -47,14 +55,8 @@ public class CurrentConvergenceLayerStatsLoader extends AsyncTaskLoader<List<Con
     @Override
     protected void onReset() {
         onStopLoading();
-        
-        if (mStarted) {
-            mHandler.removeCallbacks(_update);
-            
-            // unregister from intent receiver
-            getContext().unregisterReceiver(_receiver);
-            mStarted = false;
-        }
+        mData = null;
+        mValues = null;
     }
 
     @Override
@@ -62,61 +64,77 @@ public class CurrentConvergenceLayerStatsLoader extends AsyncTaskLoader<List<Con
         if (mData != null) {
             this.deliverResult(mData);
         }
-        
-        mHandler = new Handler();
-        mHandler.postDelayed(_update, 1000);
-        
-        IntentFilter filter = new IntentFilter(de.tubs.ibr.dtn.Intent.EVENT);
-        filter.addCategory(Intent.CATEGORY_DEFAULT);
-        getContext().registerReceiver(_receiver, filter);
-        mStarted = true;
-        
-        if (this.takeContentChanged() || mData == null) {
-            forceLoad();
+
+        if (mSubscribed) return;
+
+        try {
+            // a full snapshot is pushed right after subscribing
+            mService.subscribeStats(mListener, UPDATE_INTERVAL);
+            mSubscribed = true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "subscribe failed", e);
         }
     }
 
     @Override
     protected void onStopLoading() {
-        cancelLoad();
-    }
+        if (!mSubscribed) return;
 
-    @Override
-    public List<ConvergenceLayerStatsEntry> loadInBackground() {
-        LinkedList<ConvergenceLayerStatsEntry> ret = new LinkedList<ConvergenceLayerStatsEntry>();
-        
         try {
-	        Bundle data = mService.getStats();
-	        data.setClassLoader(getContext().getClassLoader());
-	        
-	        ArrayList<ConvergenceLayerStatsEntry> cl_stats = data.getParcelableArrayList("clstats");
-	        
-	        for (ConvergenceLayerStatsEntry e : cl_stats) {
-	            if ((mConvergenceLayer == null) || (e.getConvergenceLayer().equals(mConvergenceLayer))) {
-	                ret.push(e);
-	            }
-	        }
+            mService.unsubscribeStats(mListener);
         } catch (RemoteException e) {
-        	// error
+            Log.e(TAG, "unsubscribe failed", e);
         }
-        
-        return ret;
+        mSubscribed = false;
     }
-    
-    private Runnable _update = new Runnable() {
-        @Override
-        public void run() {
-            onContentChanged();
-            
-            if (mStarted)
-                mHandler.postDelayed(_update, 1000);
+
+    private void onUpdate(Bundle update) {
+        // drop updates which arrive after unsubscribing
+        if (!mSubscribed) return;
+
+        Bundle values = update.getBundle(StatsFeed.EXTRA_CL_VALUES);
+
+        if (update.getBoolean(StatsFeed.EXTRA_FULL)) {
+            mValues = values;
+        } else if (mValues != null) {
+            for (String cl : values.keySet()) {
+                Bundle tags = mValues.getBundle(cl);
+
+                if (tags == null) {
+                    mValues.putBundle(cl, values.getBundle(cl));
+                } else {
+                    tags.putAll(values.getBundle(cl));
+                }
+            }
+        } else {
+            // changes are useless until the full snapshot arrived
+            return;
         }
-    };
 
-    private BroadcastReceiver _receiver = new BroadcastReceiver() {
+        Date timestamp = new Date(update.getLong(StatsFeed.EXTRA_TIMESTAMP));
+        LinkedList<ConvergenceLayerStatsEntry> ret = new LinkedList<ConvergenceLayerStatsEntry>();
+
+        for (String cl : new TreeSet<String>(mValues.keySet())) {
+            if ((mConvergenceLayer != null) && !cl.equals(mConvergenceLayer)) continue;
+
+            Bundle tags = mValues.getBundle(cl);
+            for (String tag : new TreeSet<String>(tags.keySet())) {
+                ret.add(new ConvergenceLayerStatsEntry(timestamp, cl, tag, tags.getDouble(tag)));
+            }
+        }
+
+        deliverResult(ret);
+    }
+
+    private final StatsListener.Stub mListener = new StatsListener.Stub() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            onContentChanged();
+        public void onStats(final Bundle update) throws RemoteException {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onUpdate(update);
+                }
+            });
         }
     };
 }
@@ -1,38 +1,44 @@
 package de.tubs.ibr.dtn.daemon.data;
 
-import android.content.BroadcastReceiver;
+import java.util.Date;
+
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.RemoteException;
-import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.Loader;
+import android.util.Log;
 import de.tubs.ibr.dtn.service.ControlService;
+import de.tubs.ibr.dtn.service.StatsFeed;
+import de.tubs.ibr.dtn.service.StatsListener;
 import de.tubs.ibr.dtn.stats.StatsEntry;
 
-public class CurrentStatsLoader extends AsyncTaskLoader<StatsEntry> {
-    
+public class CurrentStatsLoader extends Loader<StatsEntry> {
+
+    private static final String TAG = "CurrentStatsLoader";
+
+    // time between two live updates in milliseconds
+    private static final long UPDATE_INTERVAL = 1000L;
+
     private ControlService mService = null;
-    private Boolean mStarted = false;
+    private Boolean mSubscribed = false;
     private StatsEntry mData = null;
-    private Handler mHandler = null;
+    private final Handler mHandler = new Handler();
 
     public CurrentStatsLoader(Context context, ControlService service) {
         super(context);
         mService = service;
-        setUpdateThrottle(250);
     }
-    
+
     @Override
     public void deliverResult(StatsEntry data) {
         if (isReset()) {
             mData = null;
             return;
         }
-        
+
         mData = data;
-        
+
         if (isStarted()) {
             super.deliverResult(data);
         }
@@ -41,14 +47,7 @@ public class CurrentStatsLoader extends AsyncTaskLoader<StatsEntry> {
     @Override
     protected void onReset() {
         onStopLoading();
-        
-        if (mStarted) {
-            mHandler.removeCallbacks(_update);
-            
-            // unregister from intent receiver
-            getContext().unregisterReceiver(_receiver);
-            mStarted = false;
-        }
+        mData = null;
     }
 
     @Override
@@ -56,52 +55,60 @@ public class CurrentStatsLoader extends AsyncTaskLoader<StatsEntry> {
         if (mData != null) {
             this.deliverResult(mData);
         }
-        
-        mHandler = new Handler();
-        mHandler.postDelayed(_update, 1000);
-        
-        IntentFilter filter = new IntentFilter(de.tubs.ibr.dtn.Intent.EVENT);
-        filter.addCategory(Intent.CATEGORY_DEFAULT);
-        getContext().registerReceiver(_receiver, filter);
-        mStarted = true;
-        
-        if (this.takeContentChanged() || mData == null) {
-            forceLoad();
+
+        if (mSubscribed) return;
+
+        try {
+            // a full snapshot is pushed right after subscribing
+            mService.subscribeStats(mListener, UPDATE_INTERVAL);
+            mSubscribed = true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "subscribe failed", e);
         }
     }
 
     @Override
     protected void onStopLoading() {
-        cancelLoad();
-    }
+        if (!mSubscribed) return;
 
-    @Override
-    public StatsEntry loadInBackground() {
-    	try {
-	    	Bundle data = mService.getStats();
-	    	data.setClassLoader(getContext().getClassLoader());
-	    	
-	        return data.getParcelable("stats");
+        try {
+            mService.unsubscribeStats(mListener);
         } catch (RemoteException e) {
-        	// error
-        	return null;
+            Log.e(TAG, "unsubscribe failed", e);
         }
+        mSubscribed = false;
     }
-    
-    private Runnable _update = new Runnable() {
-        @Override
-        public void run() {
-            onContentChanged();
-            
-            if (mStarted)
-                mHandler.postDelayed(_update, 1000);
+
+    private void onUpdate(Bundle update) {
+        // drop updates which arrive after unsubscribing
+        if (!mSubscribed) return;
+
+        StatsEntry e;
+
+        if (update.getBoolean(StatsFeed.EXTRA_FULL)) {
+            e = new StatsEntry();
+        } else if (mData != null) {
+            e = new StatsEntry(mData);
+        } else {
+            // changes are useless until the full snapshot arrived
+            return;
         }
-    };
 
-    private BroadcastReceiver _receiver = new BroadcastReceiver() {
+        e.setTimestamp(new Date(update.getLong(StatsFeed.EXTRA_TIMESTAMP)));
+        e.applyDelta(update.getBundle(StatsFeed.EXTRA_VALUES));
+
+        deliverResult(e);
+    }
+
+    private final StatsListener.Stub mListener = new StatsListener.Stub() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            onContentChanged();
+        public void onStats(final Bundle update) throws RemoteException {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onUpdate(update);
+                }
+            });
         }
     };
 }
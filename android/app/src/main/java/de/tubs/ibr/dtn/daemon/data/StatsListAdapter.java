@@ -176,10 +176,33 @@ public abstract class StatsListAdapter extends BaseAdapter {
       R.string.stats_title_storage_size
     };
     
+    private final static String[] mRowColumns = {
+        StatsEntry.UPTIME,
+        StatsEntry.NEIGHBORS,
+        StatsEntry.TIMESTAMP,
+        
+        StatsEntry.CLOCK_OFFSET,
+        StatsEntry.CLOCK_RATING,
+        StatsEntry.CLOCK_ADJUSTMENTS,
+        
+        StatsEntry.BUNDLE_ABORTED,
+        StatsEntry.BUNDLE_EXPIRED,
+        StatsEntry.BUNDLE_QUEUED,
+        StatsEntry.BUNDLE_REQUEUED,
+        StatsEntry.BUNDLE_STORED,
+        StatsEntry.BUNDLE_TRANSMITTED,
+        
+        StatsEntry.STORAGE_SIZE
+    };
+    
     public static RowType getRowType(int position) {
         return mRowTypes[position];
     }
     
+    public static String getRowColumn(int position) {
+        return mRowColumns[position];
+    }
+    
     public static String getRowTitle(Context context, int position) {
         return context.getResources().getString(mRowTitles[position]);
     }
@@ -1,57 +1,80 @@
 package de.tubs.ibr.dtn.daemon.data;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-
-import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
+import android.net.Uri;
 import android.support.v4.content.AsyncTaskLoader;
 import android.util.Log;
 import de.tubs.ibr.dtn.stats.StatsContentProvider;
 import de.tubs.ibr.dtn.stats.StatsEntry;
+import de.tubs.ibr.dtn.stats.StatsSeries;
 
-@SuppressLint("SimpleDateFormat")
-public class StatsLoader extends AsyncTaskLoader<Cursor> {
+public class StatsLoader extends AsyncTaskLoader<StatsSeries[]> {
     
     private static final String TAG = "StatsLoader";
     
+    // time window of the series and width of one point in milliseconds
+    private static final long WINDOW = 86400000L;
+    private static final long BUCKET_INTERVAL = 900000L;
+    
+    // points of a window including partial buckets at both ends
+    private static final int CAPACITY = (int)(WINDOW / BUCKET_INTERVAL) + 2;
+    
     private Boolean mStarted = false;
-    private Cursor mData = null;
+    private StatsSeries[] mData = null;
+    private String[] mColumns = null;
+    private String[] mRates = null;
+    
+    // the series are only modified on the main thread
+    private final StatsSeries[] mSeries;
+    
+    // rows loaded in the background and not merged into the series yet
+    private Update mPending = null;
+    
+    // start of the last bucket merged into the series
+    private volatile long mLastTimestamp = 0L;
+    
+    private static class Update {
+        public long limit;
+        public long[] timestamps;
+        public double[][] values;
+    }
 
-    public StatsLoader(Context context) {
+    /**
+     * @param columns Columns to load, one series is created for each of them
+     * @param rates Columns which are loaded as change per second
+     */
+    public StatsLoader(Context context, String[] columns, String[] rates) {
         super(context);
+        mColumns = columns;
+        mRates = rates;
+        
+        mSeries = new StatsSeries[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            mSeries[i] = new StatsSeries(CAPACITY);
+        }
+        
         setUpdateThrottle(250);
     }
     
     @Override
-    public void deliverResult(Cursor data) {
-        if (isReset()) {
-        	onReleaseResources(data);
-        	data = null;
-        }
+    public void deliverResult(StatsSeries[] data) {
+        if (isReset()) return;
         
-        Cursor oldData = mData;
+        // merge new rows into the series
+        merge();
+        
+        // deliver a new object, the loader manager ignores an already delivered one
+        if (data != null) data = mSeries.clone();
         mData = data;
         
         if (isStarted()) {
             super.deliverResult(data);
         }
-        
-        if (oldData != null && oldData != data) {
-        	onReleaseResources(oldData);
-        }
     }
-    
-    @Override
-	public void onCanceled(Cursor data) {
-		super.onCanceled(data);
-		onReleaseResources(data);
-	}
 
 	@Override
     protected void onReset() {
@@ -59,7 +82,14 @@ public class StatsLoader extends AsyncTaskLoader<Cursor> {
     	
         onStopLoading();
         
-        onReleaseResources(mData);
+        synchronized (this) {
+            mPending = null;
+        }
+        
+        for (StatsSeries series : mSeries) {
+            series.clear();
+        }
+        mLastTimestamp = 0L;
         mData = null;
         
         if (mStarted) {
@@ -91,39 +121,87 @@ public class StatsLoader extends AsyncTaskLoader<Cursor> {
     }
 
     @Override
-    public Cursor loadInBackground() {
-        final DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        
+    public StatsSeries[] loadInBackground() {
         // generate a time limit (24 hours)
-        Calendar cal = Calendar.getInstance();
-        cal.roll(Calendar.DATE, -1);
-        String timestamp_limit = formatter.format(cal.getTime());
+        long limit = System.currentTimeMillis() - WINDOW;
+        
+        // only load the last known bucket and newer ones
+        String timestamp_limit = String.valueOf(Math.max(limit, mLastTimestamp));
+        
+        Uri.Builder b = StatsContentProvider.STATS_SERIES_URI.buildUpon();
+        b.appendQueryParameter(StatsContentProvider.PARAM_BUCKET, String.valueOf(BUCKET_INTERVAL));
+        for (String rate : mRates) {
+            b.appendQueryParameter(StatsContentProvider.PARAM_RATE, rate);
+        }
+        
+        String[] projection = new String[mColumns.length + 1];
+        projection[0] = StatsEntry.TIMESTAMP;
+        System.arraycopy(mColumns, 0, projection, 1, mColumns.length);
 
+        Cursor c = null;
         try {
-            // limit to specific download
-        	return getContext().getContentResolver().query(
-        			StatsContentProvider.STATS_URI,
-                    StatsEntry.PROJECTION,
+            // aggregate the series within the provider
+        	c = getContext().getContentResolver().query(
+        			b.build(),
+                    projection,
                     StatsEntry.TIMESTAMP + " >= ?",
                     new String[] { timestamp_limit },
                     StatsEntry.TIMESTAMP + " ASC");
+        	
+        	if (c == null) return null;
+        	
+        	Update u = new Update();
+        	u.limit = limit;
+        	u.timestamps = new long[c.getCount()];
+        	u.values = new double[mColumns.length][c.getCount()];
+        	
+        	while (c.moveToNext()) {
+        	    int row = c.getPosition();
+        	    u.timestamps[row] = c.getLong(0);
+        	    
+        	    for (int i = 0; i < mColumns.length; i++) {
+        	        u.values[i][row] = c.isNull(i + 1) ? Double.NaN : c.getDouble(i + 1);
+        	    }
+        	}
+        	
+        	synchronized (this) {
+        	    mPending = u;
+        	}
+        	
+        	return mSeries;
         } catch (Exception e) {
             Log.e(TAG, "loadInBackground() failed", e);
+        } finally {
+            if (c != null) c.close();
         }
         
         return null;
     }
     
-    /**
-     * Helper function to take care of releasing resources associated
-     * with an actively loaded data set.
-     */
-    protected void onReleaseResources(Cursor data) {
-    	if (data == null) return;
-    	
-        // For a simple List<> there is nothing to do.  For something
-        // like a Cursor, we would close it here.
-    	data.close();
+    private void merge() {
+        Update u = null;
+        synchronized (this) {
+            u = mPending;
+            mPending = null;
+        }
+        
+        if (u == null) return;
+        
+        for (int row = 0; row < u.timestamps.length; row++) {
+            double x = u.timestamps[row] / 1000.0;
+            
+            for (int i = 0; i < mSeries.length; i++) {
+                if (Double.isNaN(u.values[i][row])) continue;
+                mSeries[i].put(x, u.values[i][row]);
+            }
+            
+            mLastTimestamp = Math.max(mLastTimestamp, u.timestamps[row]);
+        }
+        
+        // drop points which left the time window
+        for (StatsSeries series : mSeries) {
+            series.trim(u.limit / 1000.0);
+        }
     }
 
     private BroadcastReceiver _receiver = new BroadcastReceiver() {
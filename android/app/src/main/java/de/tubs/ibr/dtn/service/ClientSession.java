@@ -22,21 +22,33 @@
  */
 package de.tubs.ibr.dtn.service;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Parcel;
 import android.os.ParcelFileDescriptor;
-import android.os.ParcelFileDescriptor.AutoCloseInputStream;
 import android.os.Parcelable;
 import android.os.RemoteException;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 import de.tubs.ibr.dtn.api.Block;
 import de.tubs.ibr.dtn.api.Bundle;
@@ -49,27 +61,37 @@ import de.tubs.ibr.dtn.api.Timestamp;
 import de.tubs.ibr.dtn.api.TransferMode;
 import de.tubs.ibr.dtn.service.db.Endpoint;
 import de.tubs.ibr.dtn.service.db.Session;
+import de.tubs.ibr.dtn.swig.BundleIDVec;
 import de.tubs.ibr.dtn.swig.BundleNotFoundException;
 import de.tubs.ibr.dtn.swig.DtnNumber;
 import de.tubs.ibr.dtn.swig.NativeSerializerCallback;
 import de.tubs.ibr.dtn.swig.NativeSession;
 import de.tubs.ibr.dtn.swig.NativeSession.RegisterIndex;
 import de.tubs.ibr.dtn.swig.NativeSessionCallback;
+import de.tubs.ibr.dtn.swig.NativeSessionDispatcher;
 import de.tubs.ibr.dtn.swig.NativeSessionException;
 import de.tubs.ibr.dtn.swig.PrimaryBlock;
 import de.tubs.ibr.dtn.swig.PrimaryBlockFlags;
 import de.tubs.ibr.dtn.swig.StatusReportBlock;
+import de.tubs.ibr.dtn.swig.StringVec;
 
 public class ClientSession {
 
 	private final static String TAG = "ClientSession";
 
+	// number of distinct endpoints kept in each conversion cache
+	private final static int EID_CACHE_SIZE = 64;
+
+	// interned endpoints shared by all sessions; the native setters copy the EID
+	private final static LruCache<String, de.tubs.ibr.dtn.swig.EID> sSwigEidCache = new LruCache<String, de.tubs.ibr.dtn.swig.EID>(EID_CACHE_SIZE);
+	private final static LruCache<String, SingletonEndpoint> sSingletonCache = new LruCache<String, SingletonEndpoint>(EID_CACHE_SIZE);
+	private final static LruCache<String, GroupEndpoint> sGroupCache = new LruCache<String, GroupEndpoint>(EID_CACHE_SIZE);
+
 	private SessionManager mManager = null;
 	private Session mSession = null;
 
-	// locks for bundle register slot 1 and 2
-	private Object mRegisterLock1 = new Object();
-	private Object mRegisterLock2 = new Object();
+	// pool of bundle registers available for concurrent calls
+	private final BlockingQueue<Register> mRegisters = new ArrayBlockingQueue<Register>(RegisterIndex.values().length);
 
 	/**
 	 * Implemented C++ callback using SWIG directors
@@ -79,22 +101,30 @@ public class ClientSession {
 	 */
 	private final NativeSessionCallback mSessionCallback = new NativeSessionCallback() {
 
-		@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
         @Override
 		public void notifyBundle(de.tubs.ibr.dtn.swig.BundleID swigId)
 		{
-	        // forward the notification as intent
-	        // create a new intent
-	        Intent notify = new Intent(de.tubs.ibr.dtn.Intent.RECEIVE);
-	        notify.addCategory(mSession.getPackageName());
-	        notify.setPackage(mSession.getPackageName());
-	        notify.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-	        notify.putExtra("bundleid", toAndroid(swigId));
-
-	        // send notification intent
-	        mManager.getContext().sendBroadcast(notify, de.tubs.ibr.dtn.Intent.PERMISSION_COMMUNICATION);
-
-	        Log.d(TAG, "RECEIVE intent (" + swigId.toString() + ") sent to " + mSession.getPackageName());
+	        BundleID id = toAndroid(swigId);
+	        
+	        synchronized (mPendingNotifications) {
+	            if (mNotifyDelay > 0 || mNotifyBatchSize > 1) {
+	                mPendingNotifications.add(id);
+	                
+	                if (mNotifyBatchSize > 0 && mPendingNotifications.size() >= mNotifyBatchSize) {
+	                    // batch is full, flush immediately
+	                    mNotifyHandler.removeCallbacks(mNotifyFlush);
+	                    flushNotifications();
+	                } else if ((mNotifyDelay > 0) && (mPendingNotifications.size() == 1)) {
+	                    // first pending notification starts the debounce window
+	                    mNotifyHandler.postDelayed(mNotifyFlush, mNotifyDelay);
+	                }
+	                return;
+	            }
+	        }
+	        
+	        ArrayList<BundleID> ids = new ArrayList<BundleID>(1);
+	        ids.add(id);
+	        sendReceiveIntent(ids);
 		}
 
 		@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
@@ -110,7 +140,7 @@ public class ClientSession {
             notify.setPackage(mSession.getPackageName());
             notify.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
             notify.putExtra("bundleid", toAndroid(swigId));
-            notify.putExtra("source", (Parcelable)new SingletonEndpoint(source.getString()));
+            notify.putExtra("source", (Parcelable)toSingletonEndpoint(source.getString()));
             notify.putExtra("status", swigReport.getStatus());
             notify.putExtra("reason", swigReport.getReasoncode());
             
@@ -137,7 +167,7 @@ public class ClientSession {
             }
             
             // send notification intent
-            mManager.getContext().sendBroadcast(notify, de.tubs.ibr.dtn.Intent.PERMISSION_COMMUNICATION);
+            dispatchNotification(notify);
 
             Log.d(TAG, "STATUS_REPORT intent [" + swigId.toString() + "] sent to " + mSession.getPackageName());
 		}
@@ -155,25 +185,367 @@ public class ClientSession {
             notify.setPackage(mSession.getPackageName());
             notify.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
             notify.putExtra("bundleid", toAndroid(swigId));
-            notify.putExtra("source", (Parcelable)new SingletonEndpoint(source.getString()));
+            notify.putExtra("source", (Parcelable)toSingletonEndpoint(source.getString()));
             notify.putExtra("accepted", swigCustody.getCustody_accepted());
             notify.putExtra("timeofsignal", toAndroid(swigCustody.getTimeofsignal()));
 
             // send notification intent
-            mManager.getContext().sendBroadcast(notify, de.tubs.ibr.dtn.Intent.PERMISSION_COMMUNICATION);
+            dispatchNotification(notify);
 
             Log.d(TAG, "CUSTODY_SIGNAL intent [" + swigId.toString() + "] sent to " + mSession.getPackageName());
 		}
 
 	};
 	
+	// number of worker threads for asynchronous sends
+	private final static int SEND_THREADS = 2;
+	
+	// default number of asynchronous sends queued or in progress
+	private final static int DEFAULT_SEND_QUEUE_DEPTH = 16;
+	
+	// time to wait for asynchronous sends on destroy in milliseconds
+	private final static long SEND_SHUTDOWN_TIMEOUT = 10000L;
+	
+	// time to wait for each bundle register on destroy in milliseconds
+	private final static long REGISTER_RELEASE_TIMEOUT = 5000L;
+	
+	// asynchronous send queue, idle workers terminate
+	private final ThreadPoolExecutor mSendExecutor = new ThreadPoolExecutor(SEND_THREADS, SEND_THREADS,
+	        30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	private final AtomicLong mSendTicket = new AtomicLong(0L);
+	private final AtomicInteger mPendingSends = new AtomicInteger(0);
+	private volatile int mSendQueueDepth = DEFAULT_SEND_QUEUE_DEPTH;
+	
+	/**
+	 * Queue a bundle for sending. Returns a ticket for the send or -1 if
+	 * the send queue is full.
+	 */
+	public long sendAsync(android.os.Bundle entry, DTNSessionCallback cb, SendCallback done) {
+	    // apply backpressure if the queue is full
+	    if (mPendingSends.incrementAndGet() > mSendQueueDepth) {
+	        mPendingSends.decrementAndGet();
+	        return -1L;
+	    }
+	    
+	    long ticket = mSendTicket.incrementAndGet();
+	    
+	    entry.setClassLoader(ClientSession.class.getClassLoader());
+	    
+	    try {
+	        mSendExecutor.execute(new AsyncSend(ticket, entry, cb, done));
+	    } catch (RejectedExecutionException e) {
+	        // session is shutting down
+	        mPendingSends.decrementAndGet();
+	        return -1L;
+	    }
+	    
+	    return ticket;
+	}
+	
+	/**
+	 * A queued asynchronous send
+	 */
+	private final class AsyncSend implements Runnable {
+	    private final long mTicket;
+	    private final android.os.Bundle mEntry;
+	    private final DTNSessionCallback mCallback;
+	    private final SendCallback mDone;
+	    
+	    public AsyncSend(long ticket, android.os.Bundle entry, DTNSessionCallback cb, SendCallback done) {
+	        mTicket = ticket;
+	        mEntry = entry;
+	        mCallback = cb;
+	        mDone = done;
+	    }
+	    
+	    @Override
+	    public void run() {
+	        BundleID ret = null;
+	        
+	        try {
+	            Bundle bundle = mEntry.getParcelable("bundle");
+	            ParcelFileDescriptor fd = mEntry.getParcelable("fd");
+	            
+	            if (fd != null) {
+	                ret = mBinder.sendFileDescriptor(mCallback, bundle, fd);
+	            } else {
+	                byte[] data = mEntry.getByteArray("payload");
+	                if (data == null) data = new byte[0];
+	                ret = mBinder.sendByteArray(mCallback, bundle, data);
+	            }
+	        } catch (RemoteException e) {
+	            Log.e(TAG, "asynchronous send failed", e);
+	        }
+	        
+	        complete(ret);
+	    }
+	    
+	    /**
+	     * Close the payload descriptor of a send which never started and
+	     * report it as failed
+	     */
+	    public void drop() {
+	        ParcelFileDescriptor fd = mEntry.getParcelable("fd");
+	        
+	        if (fd != null) {
+	            try {
+	                fd.close();
+	            } catch (IOException e) {
+	                Log.e(TAG, "file descriptor close failed", e);
+	            }
+	        }
+	        
+	        complete(null);
+	    }
+	    
+	    /**
+	     * Report the result of the send, null if the send failed or has been dropped
+	     */
+	    public void complete(BundleID ret) {
+	        mPendingSends.decrementAndGet();
+	        
+	        if (mDone == null) return;
+	        
+	        try {
+	            mDone.onSendCompleted(mTicket, ret);
+	        } catch (RemoteException e) {
+	            Log.e(TAG, "Remote call onSendCompleted() failed", e);
+	        }
+	    }
+	}
+	
+	/**
+	 * Set the maximum number of asynchronous sends queued or in progress
+	 */
+	public void setSendQueueDepth(int depth) {
+	    mSendQueueDepth = Math.max(1, depth);
+	}
+	
+	// progress reporting intervals negotiated by the client
+	private volatile ProgressThrottle mProgressThrottle = new ProgressThrottle();
+	
+	/**
+	 * Set the intervals for progress updates of this session. An update is
+	 * forwarded if one of the intervals elapsed, zero disables an interval.
+	 */
+	public void setProgressInterval(long bytes, int percent, long millis) {
+	    mProgressThrottle = new ProgressThrottle(bytes, percent, millis);
+	}
+	
+	// pending RECEIVE notifications while coalescing is enabled
+	private final ArrayList<BundleID> mPendingNotifications = new ArrayList<BundleID>();
+	private int mNotifyDelay = 0;
+	private int mNotifyBatchSize = 0;
+	
+	private final Handler mNotifyHandler = new Handler(Looper.getMainLooper());
+	
+	private final Runnable mNotifyFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mPendingNotifications) {
+                flushNotifications();
+            }
+        }
+	};
+	
+	/**
+	 * Send all pending notifications as one intent. The caller
+	 * has to hold the lock on mPendingNotifications.
+	 */
+	private void flushNotifications() {
+	    if (mPendingNotifications.isEmpty()) return;
+	    
+	    ArrayList<BundleID> ids = new ArrayList<BundleID>(mPendingNotifications);
+	    mPendingNotifications.clear();
+	    sendReceiveIntent(ids);
+	}
+	
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+	private void sendReceiveIntent(ArrayList<BundleID> ids) {
+        // forward the notification as intent
+        // create a new intent
+        Intent notify = new Intent(de.tubs.ibr.dtn.Intent.RECEIVE);
+        notify.addCategory(mSession.getPackageName());
+        notify.setPackage(mSession.getPackageName());
+        notify.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
+        
+        // the first id keeps single-bundle receivers working
+        notify.putExtra("bundleid", ids.get(0));
+        notify.putExtra("count", ids.size());
+        notify.putParcelableArrayListExtra("bundleids", ids);
+
+        // send notification intent
+        dispatchNotification(notify);
+
+        Log.d(TAG, "RECEIVE intent (" + ids.size() + " bundles) sent to " + mSession.getPackageName());
+	}
+	
+	/**
+	 * Configure coalescing of RECEIVE notifications. Notifications are
+	 * collected until the delay expired or the batch size is reached.
+	 * A delay of zero and a batch size of one or less disables coalescing.
+	 */
+	public void setNotificationCoalescing(int delay, int batchSize) {
+	    synchronized (mPendingNotifications) {
+	        mNotifyDelay = Math.max(0, delay);
+	        mNotifyBatchSize = Math.max(0, batchSize);
+	        
+	        // deliver notifications collected with the previous settings
+	        mNotifyHandler.removeCallbacks(mNotifyFlush);
+	        flushNotifications();
+	    }
+	}
+
+	// number of notifications queued for the attached listener
+	private final static int LISTENER_QUEUE_SIZE = 64;
+
+	// time to wait for the listener dispatcher on destroy in milliseconds
+	private final static long LISTENER_JOIN_TIMEOUT = 5000L;
+
+	// time a notifying thread waits for space in the listener queue in milliseconds
+	private final static long LISTENER_QUEUE_TIMEOUT = 500L;
+
+	// notifications are pushed in order to the attached listener by a dispatcher thread
+	private final Object mListenerLock = new Object();
+	private final BlockingQueue<Intent> mListenerQueue = new ArrayBlockingQueue<Intent>(LISTENER_QUEUE_SIZE);
+	private SessionListener mListener = null;
+	private Thread mListenerThread = null;
+	private boolean mListenerClosed = false;
+
+	private final IBinder.DeathRecipient mListenerDeath = new IBinder.DeathRecipient() {
+        @Override
+        public void binderDied() {
+            Log.w(TAG, "listener of " + mSession.getPackageName() + " died, using broadcasts");
+
+            synchronized (mListenerLock) {
+                mListener = null;
+            }
+        }
+	};
+
+	private final Runnable mListenerDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    deliverNotification(mListenerQueue.take());
+                }
+            } catch (InterruptedException e) {
+                // session destroyed
+            }
+
+            // deliver notifications queued before the session has been destroyed
+            Intent notify;
+            while ((notify = mListenerQueue.poll()) != null) {
+                deliverNotification(notify);
+            }
+        }
+	};
+
+	/**
+	 * Attach a listener to this session. A previously attached listener is
+	 * detached. Notifications are broadcasted if no listener is attached.
+	 * @param listener The listener to attach, or null to detach the current listener
+	 * @throws RemoteException if the process of the listener already died
+	 */
+	public void setListener(SessionListener listener) throws RemoteException {
+	    synchronized (mListenerLock) {
+	        if (mListener != null) {
+	            mListener.asBinder().unlinkToDeath(mListenerDeath, 0);
+	            mListener = null;
+	        }
+
+	        if ((listener == null) || mListenerClosed) return;
+
+	        listener.asBinder().linkToDeath(mListenerDeath, 0);
+	        mListener = listener;
+
+	        if (mListenerThread == null) {
+	            mListenerThread = new Thread(mListenerDispatcher, "SessionListener");
+	            mListenerThread.start();
+	        }
+	    }
+	}
+
+	/**
+	 * Queue a notification for the attached listener. If the queue is full
+	 * the notifying thread waits for the listener. If the listener does not
+	 * catch up, all queued notifications are broadcasted in order before this
+	 * one. Without a listener the notification is broadcasted.
+	 */
+	private void dispatchNotification(Intent notify) {
+	    boolean queued;
+
+	    synchronized (mListenerLock) {
+	        // notifications of a detached listener are still queued to keep them in order
+	        queued = (mListener != null) || !mListenerQueue.isEmpty();
+	    }
+
+	    if (queued) {
+	        // never block the main thread which flushes coalesced notifications
+	        long timeout = (Looper.myLooper() == Looper.getMainLooper()) ? 0L : LISTENER_QUEUE_TIMEOUT;
+
+	        try {
+	            if (mListenerQueue.offer(notify, timeout, TimeUnit.MILLISECONDS)) return;
+	        } catch (InterruptedException e) {
+	            Thread.currentThread().interrupt();
+	        }
+
+	        Log.w(TAG, "listener queue of " + mSession.getPackageName() + " is full, using broadcasts");
+
+	        Intent backlog;
+	        while ((backlog = mListenerQueue.poll()) != null) {
+	            broadcastNotification(backlog);
+	        }
+	    }
+
+	    broadcastNotification(notify);
+	}
+
+	/**
+	 * Push a notification to the attached listener. Falls back to a
+	 * broadcast if no listener is attached or the listener failed.
+	 */
+	private void deliverNotification(Intent notify) {
+	    SessionListener l;
+
+	    synchronized (mListenerLock) {
+	        l = mListener;
+	    }
+
+	    if (l != null) {
+	        try {
+	            l.onNotify(notify);
+	            return;
+	        } catch (RemoteException e) {
+	            Log.w(TAG, "listener of " + mSession.getPackageName() + " failed, using broadcasts", e);
+
+	            synchronized (mListenerLock) {
+	                if (mListener == l) {
+	                    l.asBinder().unlinkToDeath(mListenerDeath, 0);
+	                    mListener = null;
+	                }
+	            }
+	        }
+	    }
+
+	    broadcastNotification(notify);
+	}
+
+	private void broadcastNotification(Intent notify) {
+	    mManager.getContext().sendBroadcast(notify, de.tubs.ibr.dtn.Intent.PERMISSION_COMMUNICATION);
+	}
+
     private final static class SerializerCallback extends NativeSerializerCallback {
         
         private DTNSessionCallback _cb = null;
         private TransferMode _mode = TransferMode.NULL;
         private OutputStream _output = null;
+        private ParcelFileDescriptor _fd = null;
         private long _current = 0L;
         private long _length = 0L;
+        private ProgressThrottle _template = null;
+        private ProgressThrottle _throttle = new ProgressThrottle();
                 
         public SerializerCallback() {
         }
@@ -181,6 +553,17 @@ public class ClientSession {
         public void setCallback(DTNSessionCallback cb) {
             this._cb = cb;
         }
+        
+        public void setThrottle(ProgressThrottle throttle) {
+            if (_template == throttle) return;
+            _template = throttle;
+            _throttle = throttle.copy();
+        }
+        
+        public void resetProgress() {
+            _current = 0L;
+            _throttle.reset();
+        }
 
         @Override
         public void beginBundle(PrimaryBlock block) {
@@ -212,8 +595,10 @@ public class ClientSession {
             if (TransferMode.FILEDESCRIPTOR.equals(_mode)) {
                 try {
                     // ask for a filedescriptor
-                    _output = new ParcelFileDescriptor.AutoCloseOutputStream(_cb.fd());
+                    _fd = _cb.fd();
+                    _output = new ParcelFileDescriptor.AutoCloseOutputStream(_fd);
                     _length = payload_length;
+                    resetProgress();
                 } catch (RemoteException e) {
                     Log.e(TAG, "Remote call fd() failed", e);
                 }
@@ -237,11 +622,37 @@ public class ClientSession {
             }
             
             _output = null;
+            _fd = null;
             _mode = TransferMode.NULL;
             _length = 0L;
             _current = 0L;
         }
         
+        @Override
+        public int descriptor() {
+            // let the native serializer write directly into the file descriptor
+            if (_fd == null) return -1;
+            return _fd.getFd();
+        }
+        
+        @Override
+        public void progress(long current, long length) {
+            if (_cb == null) return;
+            
+            // a length of zero is reported if the total length is unknown
+            if (length == 0) length = -1;
+            
+            _current = current;
+            
+            if (!_throttle.update(current, length)) return;
+            
+            try {
+                _cb.progress(current, length);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Remote call progress() failed", e);
+            }
+        }
+        
         @Override
         public void payload(byte data[]) {
             // skip this if the transfer mode is set to null
@@ -258,7 +669,9 @@ public class ClientSession {
                     _current += data.length;
                     
                     // signal progress of copying
-                    _cb.progress(_current, _length);
+                    if (_throttle.update(_current, _length)) {
+                        _cb.progress(_current, _length);
+                    }
                 } catch (IOException e) {
                     Log.e(TAG, "Failed to put payload into the output stream", e);
                     
@@ -283,35 +696,104 @@ public class ClientSession {
         }
     }
 
-	private final Thread mReceiverThread = new Thread() {
+    /**
+     * Collects the bundles of a batch query into parcelable containers
+     */
+    private final static class BatchCollector extends NativeSerializerCallback {
+        
+        // block type of the payload block (RFC 5050)
+        private final static int PAYLOAD_BLOCK_TYPE = 1;
+        
+        private android.os.Bundle _entry = null;
+        private ArrayList<Block> _blocks = null;
+        private ByteArrayOutputStream _payload = null;
+        private boolean _payload_block = false;
+        private long _length = 0L;
+        
+        public android.os.Bundle getEntry() {
+            return _entry;
+        }
+        
+        public long getLength() {
+            return _length;
+        }
+
+        @Override
+        public void beginBundle(PrimaryBlock block) {
+            _entry = new android.os.Bundle();
+            _entry.putParcelable("bundle", toAndroid(block));
+            _blocks = new ArrayList<Block>();
+            _length = 0L;
+        }
 
         @Override
-        public void run() {
-        	// lower the thread priority
-        	android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
-        	
-            try {
-                while (!this.isInterrupted()) {
-                    ClientSession.this.mNativeSession.receive();
-                }
-            } catch (NativeSessionException e) {
-                if (!e.getMessage().startsWith("loop aborted")) {
-                    Log.e(TAG, "Receiver thread terminated.", e);
-                }
+        public void endBundle() {
+            _entry.putParcelableArrayList("blocks", _blocks);
+        }
+
+        @Override
+        public void beginBlock(de.tubs.ibr.dtn.swig.Block block, long payload_length) {
+            _blocks.add(toAndroid(block));
+            _length += payload_length;
+            
+            // only the data of the payload block is collected
+            _payload_block = (block.getType() == PAYLOAD_BLOCK_TYPE);
+        }
+
+        @Override
+        public void endBlock() {
+            if (_payload != null) {
+                _entry.putByteArray("payload", _payload.toByteArray());
             }
+            
+            _payload = null;
+            _payload_block = false;
         }
-	    
-	};
 
-	private final SerializerCallback mSerializerCallback = new SerializerCallback();
+        @Override
+        public void payload(byte data[]) {
+            if (!_payload_block) return;
+            
+            if (_payload == null) {
+                _payload = new ByteArrayOutputStream();
+            }
+            
+            _payload.write(data, 0, data.length);
+        }
+    }
+    
+    /**
+     * A bundle register of the native session together with its own
+     * serializer, so that calls using different registers can run in parallel
+     */
+    private final static class Register {
+        public final RegisterIndex index;
+        public final SerializerCallback serializer = new SerializerCallback();
+        
+        public Register(RegisterIndex index) {
+            this.index = index;
+        }
+    }
+
+	// bundles are received by the dispatcher threads of the session manager
+	private final Object mReceiveLock = new Object();
+	private boolean mDestroyed = false;
+
     private NativeSession mNativeSession = null;
 
 	public ClientSession(SessionManager manager, Session session) {
 		mManager = manager;
 		mSession = session;
+		
+		// fill the pool of bundle registers
+		for (RegisterIndex index : RegisterIndex.values()) {
+		    mRegisters.add(new Register(index));
+		}
+		
+		mSendExecutor.allowCoreThreadTimeOut(true);
 
-		// initialize native session class
-		mNativeSession = new NativeSession(mSessionCallback, mSerializerCallback, mSession.getSessionKey());
+		// initialize native session class, serializers are given per call
+		mNativeSession = new NativeSession(mSessionCallback, null, mSession.getSessionKey());
 		
 		try {
 			// set default endpoint
@@ -319,34 +801,148 @@ public class ClientSession {
 		} catch (NativeSessionException e) {
 			Log.e(TAG, "can not set default endpoint", e);
 		}
-
-        // start-up receiver thread
-        mReceiverThread.start();
+	}
+	
+	/**
+	 * Attach the session to the shared receiver dispatcher
+	 */
+	public void attach(NativeSessionDispatcher dispatcher) {
+	    mNativeSession.setDispatcher(dispatcher);
+	}
+	
+	/**
+	 * Process up to max queued bundles of this session. Called by the
+	 * receiver threads of the session manager.
+	 * @return True, if more bundles may be available
+	 */
+	public boolean receive(int max) {
+	    synchronized (mReceiveLock) {
+	        if (mDestroyed) return false;
+	        
+	        try {
+	            for (int i = 0; i < max; i++) {
+	                if (!mNativeSession.poll()) return false;
+	            }
+	            return true;
+	        } catch (NativeSessionException e) {
+	            if (!e.getMessage().startsWith("loop aborted")) {
+	                Log.e(TAG, "Receiving bundles failed.", e);
+	            }
+	            return false;
+	        }
+	    }
 	}
 	
 	/**
 	 * destroy the session
 	 */
 	public void destroy() {
+	    // finish queued asynchronous sends
+	    mSendExecutor.shutdown();
+	    try {
+	        if (!mSendExecutor.awaitTermination(SEND_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+	            Log.w(TAG, "asynchronous sends of " + mSession.getPackageName() + " timed out");
+	        }
+	    } catch (InterruptedException e) {
+	        Log.e(TAG, "Wait for asynchronous sends failed.", e);
+	    }
+	    
+	    // drop sends which are still queued and report them as failed
+	    for (Runnable r : mSendExecutor.shutdownNow()) {
+	        ((AsyncSend)r).drop();
+	    }
+	    
 	    mNativeSession.destroy();
 
+	    // wait until no receiver thread works on this session
+	    synchronized (mReceiveLock) {
+	        mDestroyed = true;
+	    }
+	    
+	    // deliver pending notifications
+	    synchronized (mPendingNotifications) {
+	        mNotifyHandler.removeCallbacks(mNotifyFlush);
+	        flushNotifications();
+	    }
+	    
+	    // stop the listener dispatcher after it delivered the queued notifications
+	    Thread listenerThread;
+	    synchronized (mListenerLock) {
+	        mListenerClosed = true;
+	        listenerThread = mListenerThread;
+	    }
+
+	    if (listenerThread != null) {
+	        listenerThread.interrupt();
+	        try {
+	            listenerThread.join(LISTENER_JOIN_TIMEOUT);
+	        } catch (InterruptedException e) {
+	            Log.e(TAG, "Join on listener thread failed.", e);
+	        }
+	    }
+
+	    synchronized (mListenerLock) {
+	        if (mListener != null) {
+	            mListener.asBinder().unlinkToDeath(mListenerDeath, 0);
+	            mListener = null;
+	        }
+	    }
+
+	    // wait until all registers are released
+	    List<Register> registers = new ArrayList<Register>();
 	    try {
-	        mReceiverThread.join();
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Join on receiver thread failed.", e);
-        }
+	        while (registers.size() < RegisterIndex.values().length) {
+	            Register r = mRegisters.poll(REGISTER_RELEASE_TIMEOUT, TimeUnit.MILLISECONDS);
+	            if (r == null) break;
+	            registers.add(r);
+	        }
+	    } catch (InterruptedException e) {
+	        Log.e(TAG, "Wait for bundle registers failed.", e);
+	    }
 	    
-	    mNativeSession.delete();
+	    for (Register r : registers) {
+	        r.serializer.delete();
+	    }
 	    
-	    synchronized(mSerializerCallback) {
-	        mSessionCallback.delete();
+	    if (registers.size() < RegisterIndex.values().length) {
+	        // a blocked call still uses the native session, do not delete it underneath
+	        Log.w(TAG, "bundle registers of " + mSession.getPackageName() + " still in use, native session not deleted");
+	        return;
 	    }
 	    
-	    synchronized(mSerializerCallback) {
-	        mSerializerCallback.delete();
+	    mNativeSession.delete();
+	    mSessionCallback.delete();
+	}
+	
+	/**
+	 * Take a free bundle register out of the pool. Blocks until
+	 * a register is available.
+	 */
+	private Register acquireRegister() {
+	    boolean interrupted = false;
+	    
+	    try {
+	        while (true) {
+	            try {
+	                Register r = mRegisters.take();
+	                r.serializer.setThrottle(mProgressThrottle);
+	                return r;
+	            } catch (InterruptedException e) {
+	                interrupted = true;
+	            }
+	        }
+	    } finally {
+	        if (interrupted) Thread.currentThread().interrupt();
 	    }
 	}
 	
+	/**
+	 * Put a bundle register back into the pool
+	 */
+	private void releaseRegister(Register r) {
+	    mRegisters.offer(r);
+	}
+	
 	public void setDefaultEndpoint(String endpoint) throws NativeSessionException {
 	    mNativeSession.setEndpoint(endpoint);
 	}
@@ -365,6 +961,67 @@ public class ClientSession {
 		}
 	}
 	
+	/**
+	 * Add many group endpoints to the native registration in one call
+	 */
+	public void addEndpoints(Collection<GroupEndpoint> groups) throws NativeSessionException {
+	    if (groups.isEmpty()) return;
+	    
+	    StringVec eids = new StringVec();
+	    try {
+	        for (GroupEndpoint group : groups) {
+	            eids.add(group.toString());
+	        }
+	        mNativeSession.addRegistrations(eids);
+	    } finally {
+	        eids.delete();
+	    }
+	}
+	
+	/**
+	 * Restore the endpoints of the session, full qualified
+	 * endpoints are added in one call
+	 */
+	public void restoreEndpoints(Collection<Endpoint> endpoints) throws NativeSessionException {
+	    if (endpoints.isEmpty()) return;
+	    
+	    StringVec eids = new StringVec();
+	    try {
+	        for (Endpoint e : endpoints) {
+	            if (e.isFqeid()) {
+	                eids.add(e.getEndpoint());
+	            } else {
+	                mNativeSession.addEndpoint(e.getEndpoint());
+	            }
+	        }
+	        mNativeSession.addRegistrations(eids);
+	    } finally {
+	        eids.delete();
+	    }
+	}
+	
+	/**
+	 * Remove many endpoints from the native registration, full qualified
+	 * endpoints are removed in one call
+	 */
+	public void removeEndpoints(Collection<Endpoint> endpoints) throws NativeSessionException {
+	    if (endpoints.isEmpty()) return;
+	    
+	    StringVec eids = new StringVec();
+	    try {
+	        for (Endpoint e : endpoints) {
+	            if (e.isFqeid()) {
+	                eids.add(e.getEndpoint());
+	            } else {
+	                mNativeSession.removeEndpoint(e.getEndpoint());
+	            }
+	        }
+	        mNativeSession.removeRegistrations(eids);
+	    } finally {
+	        eids.delete();
+	    }
+	}
+	
 	public void removeEndpoint(Endpoint e) throws NativeSessionException {
 		if (e.isFqeid()) {
 			de.tubs.ibr.dtn.swig.EID eid = new de.tubs.ibr.dtn.swig.EID(e.getEndpoint());
@@ -380,121 +1037,109 @@ public class ClientSession {
     private final DTNSession.Stub mBinder = new DTNSession.Stub() {
         public boolean queryInfo(DTNSessionCallback cb, BundleID id) throws RemoteException
         {
-            synchronized (mSerializerCallback) {
-                // set serializer for this query
-                mSerializerCallback.setCallback(cb);
-
-                try {
-                    synchronized (mRegisterLock1) {
-                        // load the bundle into the register
-                        mNativeSession.load(NativeSession.RegisterIndex.REG1, toSwig(id));
-
-                        // get the bundle
-                        mNativeSession.getInfo(NativeSession.RegisterIndex.REG1);
-                    }
+            Register r = acquireRegister();
+            
+            // set serializer for this query
+            r.serializer.setCallback(cb);
 
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+            try {
+                // load the bundle into the register
+                mNativeSession.load(r.index, toSwig(id));
 
-                    // bundle loaded - return true
-                    return true;
-                } catch (BundleNotFoundException e) {
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+                // get the bundle
+                mNativeSession.getInfo(r.index, r.serializer);
 
-                    // bundle not found - return false
-                    return false;
-                }
+                // bundle loaded - return true
+                return true;
+            } catch (BundleNotFoundException e) {
+                // bundle not found - return false
+                return false;
+            } finally {
+                // set serializer back to null
+                r.serializer.setCallback(null);
+                
+                releaseRegister(r);
             }
         }
         
         public boolean query(DTNSessionCallback cb, BundleID id) throws RemoteException
         {
-            synchronized (mSerializerCallback) {
-                // set serializer for this query
-                mSerializerCallback.setCallback(cb);
-
-                try {
-                    synchronized (mRegisterLock1) {
-                        // load the bundle into the register
-                        mNativeSession.load(NativeSession.RegisterIndex.REG1, toSwig(id));
-
-                        // get the bundle
-                        mNativeSession.get(NativeSession.RegisterIndex.REG1);
-                    }
+            Register r = acquireRegister();
+            
+            // set serializer for this query
+            r.serializer.setCallback(cb);
 
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+            try {
+                // load the bundle into the register
+                mNativeSession.load(r.index, toSwig(id));
 
-                    // bundle loaded - return true
-                    return true;
-                } catch (BundleNotFoundException e) {
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+                // get the bundle
+                mNativeSession.get(r.index, r.serializer);
 
-                    // bundle not found - return false
-                    return false;
-                }
+                // bundle loaded - return true
+                return true;
+            } catch (BundleNotFoundException e) {
+                // bundle not found - return false
+                return false;
+            } finally {
+                // set serializer back to null
+                r.serializer.setCallback(null);
+                
+                releaseRegister(r);
             }
         }
         
         public boolean queryInfoNext(DTNSessionCallback cb) throws RemoteException
         {
-            synchronized (mSerializerCallback) {
-                // set serializer for this query
-                mSerializerCallback.setCallback(cb);
-
-                try {
-                    synchronized (mRegisterLock1) {
-                        // load the next bundle into the register
-                        mNativeSession.next(NativeSession.RegisterIndex.REG1);
-
-                        // get the bundle
-                        mNativeSession.getInfo(NativeSession.RegisterIndex.REG1);
-                    }
+            Register r = acquireRegister();
+            
+            // set serializer for this query
+            r.serializer.setCallback(cb);
 
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+            try {
+                // load the next bundle into the register
+                mNativeSession.next(r.index);
 
-                    // bundle loaded - return true
-                    return true;
-                } catch (BundleNotFoundException e) {
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+                // get the bundle
+                mNativeSession.getInfo(r.index, r.serializer);
 
-                    // bundle not found - return false
-                    return false;
-                }
+                // bundle loaded - return true
+                return true;
+            } catch (BundleNotFoundException e) {
+                // bundle not found - return false
+                return false;
+            } finally {
+                // set serializer back to null
+                r.serializer.setCallback(null);
+                
+                releaseRegister(r);
             }
         }
 
         public boolean queryNext(DTNSessionCallback cb) throws RemoteException
         {
-            synchronized (mSerializerCallback) {
-                // set serializer for this query
-                mSerializerCallback.setCallback(cb);
-
-                try {
-                    synchronized (mRegisterLock1) {
-                        // load the next bundle into the register
-                        mNativeSession.next(NativeSession.RegisterIndex.REG1);
-
-                        // get the bundle
-                        mNativeSession.get(NativeSession.RegisterIndex.REG1);
-                    }
+            Register r = acquireRegister();
+            
+            // set serializer for this query
+            r.serializer.setCallback(cb);
 
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+            try {
+                // load the next bundle into the register
+                mNativeSession.next(r.index);
 
-                    // bundle loaded - return true
-                    return true;
-                } catch (BundleNotFoundException e) {
-                    // set serializer back to null
-                    mSerializerCallback.setCallback(null);
+                // get the bundle
+                mNativeSession.get(r.index, r.serializer);
 
-                    // bundle not found - return false
-                    return false;
-                }
+                // bundle loaded - return true
+                return true;
+            } catch (BundleNotFoundException e) {
+                // bundle not found - return false
+                return false;
+            } finally {
+                // set serializer back to null
+                r.serializer.setCallback(null);
+                
+                releaseRegister(r);
             }
         }
 
@@ -512,45 +1157,36 @@ public class ClientSession {
         public BundleID sendByteArray(DTNSessionCallback cb, Bundle bundle, byte[] data)
                 throws RemoteException {
             try {
-                PrimaryBlock b = new PrimaryBlock();
-
-                b.set(PrimaryBlock.FLAGS.DESTINATION_IS_SINGLETON,
-                        bundle.get(Bundle.ProcFlags.DESTINATION_IS_SINGLETON));
-                b.setDestination(new de.tubs.ibr.dtn.swig.EID(bundle.getDestination().toString()));
-
-                // set lifetime
-                if (bundle.getLifetime() != null)
-                    b.setLifetime(new DtnNumber(bundle.getLifetime()));
-
-                if (bundle.getReportto() != null)
-                    b.setReportto(new de.tubs.ibr.dtn.swig.EID(bundle.getReportto().toString()));
-
-                if (bundle.getCustodian() != null)
-                    b.setCustodian(new de.tubs.ibr.dtn.swig.EID(bundle.getCustodian().toString()));
-
-                // add flags from procflags
-                b.setProcflags( new PrimaryBlockFlags( b.getProcflags().get() | bundle.getProcflags() ) );
+                // create a primary block for the new bundle
+                PrimaryBlock b = createPrimaryBlock(bundle);
 
                 // bundle id return value
                 de.tubs.ibr.dtn.swig.BundleID ret = null;
 
-                synchronized (mRegisterLock2) {
+                Register r = acquireRegister();
+                
+                try {
                     // put the primary block into the register
-                    mNativeSession.put(RegisterIndex.REG2, b);
+                    mNativeSession.put(r.index, b);
 
                     if (cb != null) {
                         cb.progress(0, data.length);
                     }
 
                     // add data
-                    mNativeSession.write(RegisterIndex.REG2, data);
+                    mNativeSession.write(r.index, data);
 
                     if (cb != null) {
                         cb.progress(data.length, data.length);
                     }
 
                     // send the bundle
-                    ret = mNativeSession.send(RegisterIndex.REG2);
+                    ret = mNativeSession.send(r.index);
+                    
+                    // clear the register
+                    mNativeSession.clear(r.index);
+                } finally {
+                    releaseRegister(r);
                 }
 
                 return toAndroid(ret);
@@ -567,81 +1203,48 @@ public class ClientSession {
                 if (Log.isLoggable(TAG, Log.DEBUG))
                     Log.d(TAG, "Received file descriptor as bundle payload.");
 
-                PrimaryBlock b = new PrimaryBlock();
-
-                b.set(PrimaryBlock.FLAGS.DESTINATION_IS_SINGLETON,
-                        bundle.get(Bundle.ProcFlags.DESTINATION_IS_SINGLETON));
-                b.setDestination(new de.tubs.ibr.dtn.swig.EID(bundle.getDestination().toString()));
-
-                // set lifetime
-                if (bundle.getLifetime() != null)
-                    b.setLifetime( new DtnNumber( bundle.getLifetime() ) );
-
-                if (bundle.getReportto() != null)
-                    b.setReportto(new de.tubs.ibr.dtn.swig.EID(bundle.getReportto().toString()));
-
-                if (bundle.getCustodian() != null)
-                    b.setCustodian(new de.tubs.ibr.dtn.swig.EID(bundle.getCustodian().toString()));
-
-                // add flags from procflags
-                b.setProcflags( new PrimaryBlockFlags( b.getProcflags().get() | bundle.getProcflags() ) );
-
-                // open the file descriptor
-                AutoCloseInputStream stream = new AutoCloseInputStream(fd);
-                FileChannel inChannel = stream.getChannel();
+                // create a primary block for the new bundle
+                PrimaryBlock b = createPrimaryBlock(bundle);
 
                 try {
                     de.tubs.ibr.dtn.swig.BundleID ret = null;
 
-                    synchronized (mRegisterLock2) {
+                    Register r = acquireRegister();
+                    
+                    try {
                         // put the primary block into the register
-                        mNativeSession.put(RegisterIndex.REG2, b);
+                        mNativeSession.put(r.index, b);
 
                         if (cb != null) {
                             cb.progress(0, -1);
                         }
 
-                        int offset = 0;
-                        int count = 0;
-
-                        // allocate a buffer for data copying
-                        ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
-
-                        // copy the data of the inChannel to the register 2
-                        while ((count = inChannel.read(buffer)) > 0) {
-                            // create a new data array
-                            byte data[] = new byte[count];
-
-                            // put the data into a byte array
-                            buffer.flip();
-                            buffer.get(data);
+                        // let the daemon drain the file descriptor into the register
+                        r.serializer.setCallback(cb);
+                        r.serializer.resetProgress();
+                        long length = mNativeSession.write(r.index, fd.getFd(), r.serializer);
 
-                            // write buffer to register 2
-                            mNativeSession.write(RegisterIndex.REG2, data, offset);
-
-                            // increment written data
-                            offset += count;
-
-                            // clear the buffer
-                            buffer.clear();
-
-                            // report progress
-                            if (cb != null) {
-                                cb.progress(offset, -1);
-                            }
+                        // report progress
+                        if (cb != null) {
+                            cb.progress(length, -1);
                         }
 
                         // send the bundle
-                        ret = mNativeSession.send(RegisterIndex.REG2);
+                        ret = mNativeSession.send(r.index);
+                        
+                        // clear the register
+                        mNativeSession.clear(r.index);
+                    } finally {
+                        r.serializer.setCallback(null);
+                        releaseRegister(r);
                     }
 
                     return toAndroid(ret);
                 } finally {
                     try {
-                        inChannel.close();
-                        stream.close();
+                        fd.close();
                     } catch (IOException e) {
-                        Log.e(TAG, "channel close failed", e);
+                        Log.e(TAG, "file descriptor close failed", e);
                     }
                 }
             } catch (Exception e) {
@@ -696,26 +1299,311 @@ public class ClientSession {
 		return mBinder;
 	}
 	
+    // upper limit for the size of a batch, well below the binder transaction limit of 1 MB
+    private final static long MAX_BATCH_BYTES = 256L * 1024L;
+    
+    /**
+     * Returns the number of bytes the entry occupies in a parcel
+     */
+    private static long getParcelSize(android.os.Bundle entry) {
+        Parcel p = Parcel.obtain();
+        try {
+            p.writeBundle(entry);
+            return p.dataSize();
+        } finally {
+            p.recycle();
+        }
+    }
+    
+    /**
+     * This is the implementation of the extended session API
+     */
+    private final ExtendedSession.Stub mExtendedBinder = new ExtendedSession.Stub() {
+        @Override
+        public List<android.os.Bundle> queryNextBatch(int maxCount, long maxBytes) throws RemoteException {
+            ArrayList<android.os.Bundle> ret = new ArrayList<android.os.Bundle>();
+            BatchCollector collector = new BatchCollector();
+            long bytes = 0L;
+            
+            // a dequeued bundle is lost if the reply exceeds the binder transaction limit
+            long budget = (maxBytes < 0) ? MAX_BATCH_BYTES : Math.min(maxBytes, MAX_BATCH_BYTES);
+            
+            Register r = acquireRegister();
+
+            try {
+                while (ret.size() < maxCount) {
+                    // load the next bundle into the register
+                    mNativeSession.next(r.index);
+                    
+                    // get the bundle skeleton to determine its size
+                    mNativeSession.getInfo(r.index, collector);
+                    
+                    android.os.Bundle entry = collector.getEntry();
+                    entry.putBoolean("complete", false);
+                    long skeleton = getParcelSize(entry);
+                    
+                    if (bytes + skeleton + collector.getLength() <= budget) {
+                        // get the whole bundle
+                        mNativeSession.get(r.index, collector);
+                        bytes += skeleton + collector.getLength();
+                        
+                        entry = collector.getEntry();
+                        entry.putBoolean("complete", true);
+                        ret.add(entry);
+                    } else {
+                        // return the skeleton only, the payload has to be queried separately
+                        ret.add(entry);
+                        break;
+                    }
+                }
+            } catch (BundleNotFoundException e) {
+                // no more bundles queued
+            } finally {
+                mNativeSession.clear(r.index);
+                releaseRegister(r);
+                
+                collector.delete();
+            }
+            
+            return ret;
+        }
+
+        @Override
+        public int deliveredBatch(List<BundleID> ids) throws RemoteException {
+            BundleIDVec swigIds = new BundleIDVec();
+            
+            try {
+                for (BundleID id : ids) {
+                    swigIds.add(toSwig(id));
+                }
+                
+                // mark all bundles as delivered in one native call
+                return (int)mNativeSession.delivered(swigIds);
+            } finally {
+                swigIds.delete();
+            }
+        }
+
+        @Override
+        public List<BundleID> sendBatch(List<android.os.Bundle> bundles) throws RemoteException {
+            ArrayList<BundleID> ret = new ArrayList<BundleID>(bundles.size());
+            ArrayList<PrimaryBlock> blocks = new ArrayList<PrimaryBlock>(bundles.size());
+            
+            // check all entries first, a malformed entry rejects the whole batch
+            for (int i = 0; i < bundles.size(); i++) {
+                android.os.Bundle entry = bundles.get(i);
+                entry.setClassLoader(ClientSession.class.getClassLoader());
+                
+                Bundle bundle = entry.getParcelable("bundle");
+                
+                if ((bundle == null) || (bundle.getDestination() == null)) {
+                    throw new IllegalArgumentException("entry " + i + " has no bundle destination");
+                }
+                
+                // create a primary block for the new bundle
+                blocks.add(createPrimaryBlock(bundle));
+            }
+            
+            Register r = acquireRegister();
+            
+            try {
+                for (int i = 0; i < blocks.size(); i++) {
+                    byte[] data = bundles.get(i).getByteArray("payload");
+                    
+                    if (data == null) data = new byte[0];
+                    
+                    // put the primary block and the payload into the register and send it
+                    ret.add(toAndroid(mNativeSession.send(r.index, blocks.get(i), data)));
+                }
+            } finally {
+                // clear the register
+                mNativeSession.clear(r.index);
+                
+                releaseRegister(r);
+            }
+            
+            return ret;
+        }
+
+        @Override
+        public void setNotificationCoalescing(int delay, int batchSize) throws RemoteException {
+            ClientSession.this.setNotificationCoalescing(delay, batchSize);
+        }
+
+        @Override
+        public void setListener(SessionListener listener) throws RemoteException {
+            ClientSession.this.setListener(listener);
+        }
+
+        @Override
+        public void setProgressInterval(long bytes, int percent, long millis) throws RemoteException {
+            ClientSession.this.setProgressInterval(bytes, percent, millis);
+        }
+
+        @Override
+        public long sendAsync(android.os.Bundle entry, DTNSessionCallback cb, SendCallback done) throws RemoteException {
+            return ClientSession.this.sendAsync(entry, cb, done);
+        }
+
+        @Override
+        public void setSendQueueDepth(int depth) throws RemoteException {
+            ClientSession.this.setSendQueueDepth(depth);
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR2)
+        @Override
+        public ParcelFileDescriptor queryPayloadShared(BundleID id, long[] length) throws RemoteException {
+            // descriptors can not be adopted before API level 13
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR2) return null;
+            
+            Register r = acquireRegister();
+            
+            try {
+                // load the bundle into the register
+                mNativeSession.load(r.index, toSwig(id));
+                
+                // copy the payload into a new shared memory region
+                int[] payloadLength = new int[] { 0 };
+                int fd = mNativeSession.share(r.index, payloadLength);
+                
+                if ((length != null) && (length.length > 0)) length[0] = payloadLength[0];
+                
+                // the descriptor of the service is closed once the reply is written
+                return ParcelFileDescriptor.adoptFd(fd);
+            } catch (BundleNotFoundException e) {
+                return null;
+            } catch (NativeSessionException e) {
+                Log.e(TAG, "sharing payload failed", e);
+                return null;
+            } finally {
+                // clear the register
+                mNativeSession.clear(r.index);
+                
+                releaseRegister(r);
+            }
+        }
+
+        @Override
+        public BundleID sendShared(android.os.Bundle entry) throws RemoteException {
+            entry.setClassLoader(ClientSession.class.getClassLoader());
+            
+            Bundle bundle = entry.getParcelable("bundle");
+            ParcelFileDescriptor region = entry.getParcelable("payload");
+            long length = entry.getLong("length", 0L);
+            
+            try {
+                // create a primary block for the new bundle
+                PrimaryBlock b = createPrimaryBlock(bundle);
+                
+                Register r = acquireRegister();
+                
+                try {
+                    // put the primary block into the register
+                    mNativeSession.put(r.index, b);
+                    
+                    // copy the payload out of the shared memory region
+                    if (region != null) {
+                        mNativeSession.writeShared(r.index, region.getFd(), length);
+                    }
+                    
+                    // send the bundle
+                    return toAndroid(mNativeSession.send(r.index));
+                } finally {
+                    // clear the register
+                    mNativeSession.clear(r.index);
+                    
+                    releaseRegister(r);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "sendShared failed", e);
+                return null;
+            } finally {
+                if (region != null) {
+                    try {
+                        region.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "shared memory region close failed", e);
+                    }
+                }
+            }
+        }
+    };
+    
+    public ExtendedSession getExtendedBinder()
+    {
+        return mExtendedBinder;
+    }
+	
+	private static de.tubs.ibr.dtn.swig.EID toSwigEid(String endpoint) {
+		de.tubs.ibr.dtn.swig.EID eid = sSwigEidCache.get(endpoint);
+		if (eid == null) {
+			eid = new de.tubs.ibr.dtn.swig.EID(endpoint);
+			sSwigEidCache.put(endpoint, eid);
+		}
+		return eid;
+	}
+	
+	private static SingletonEndpoint toSingletonEndpoint(String endpoint) {
+		SingletonEndpoint e = sSingletonCache.get(endpoint);
+		if (e == null) {
+			e = new SingletonEndpoint(endpoint);
+			sSingletonCache.put(endpoint, e);
+		}
+		return e;
+	}
+	
+	private static GroupEndpoint toGroupEndpoint(String endpoint) {
+		GroupEndpoint e = sGroupCache.get(endpoint);
+		if (e == null) {
+			e = new GroupEndpoint(endpoint);
+			sGroupCache.put(endpoint, e);
+		}
+		return e;
+	}
+	
 	private static de.tubs.ibr.dtn.swig.BundleID toSwig(BundleID id)
 	{
 		de.tubs.ibr.dtn.swig.BundleID swigId = new de.tubs.ibr.dtn.swig.BundleID();
-		swigId.setSource(new de.tubs.ibr.dtn.swig.EID(id.getSource().toString()));
-		swigId.setSequencenumber(new DtnNumber(id.getSequencenumber()));
-		swigId.setTimestamp(new DtnNumber(id.getTimestamp().getValue()));
+		swigId.setSource(toSwigEid(id.getSource().toString()));
+		swigId.setSequencenumberValue(id.getSequencenumber());
+		swigId.setTimestampValue(id.getTimestamp().getValue());
 		
 		if (id.isFragment()) {
             swigId.setFragment(true);
-            swigId.setFragmentoffset(new DtnNumber(id.getFragmentOffset()));
+            swigId.setFragmentoffsetValue(id.getFragmentOffset());
             swigId.setPayloadLength(id.getFragmentPayload());
 		} else {
             swigId.setFragment(false);
-            swigId.setFragmentoffset(new DtnNumber(0));
+            swigId.setFragmentoffsetValue(0);
             swigId.setPayloadLength(0);
 		}
 		
 		return swigId;
 	}
 	
+	private static PrimaryBlock createPrimaryBlock(Bundle bundle) {
+        PrimaryBlock b = new PrimaryBlock();
+
+        b.set(PrimaryBlock.FLAGS.DESTINATION_IS_SINGLETON,
+                bundle.get(Bundle.ProcFlags.DESTINATION_IS_SINGLETON));
+        b.setDestination(toSwigEid(bundle.getDestination().toString()));
+
+        // set lifetime
+        if (bundle.getLifetime() != null)
+            b.setLifetimeValue(bundle.getLifetime());
+
+        if (bundle.getReportto() != null)
+            b.setReportto(toSwigEid(bundle.getReportto().toString()));
+
+        if (bundle.getCustodian() != null)
+            b.setCustodian(toSwigEid(bundle.getCustodian().toString()));
+
+        // add flags from procflags
+        b.setProcflags( new PrimaryBlockFlags( b.getProcflags().get() | bundle.getProcflags() ) );
+        
+        return b;
+	}
+	
 	@SuppressWarnings("unused")
     private static de.tubs.ibr.dtn.swig.PrimaryBlock toSwig(Bundle bundle) {
 		/*
@@ -752,25 +1640,25 @@ public class ClientSession {
 		Bundle ret = new Bundle( block.getProcflags().get() );
 		
 		if (block.get(PrimaryBlock.FLAGS.DESTINATION_IS_SINGLETON)) {
-			ret.setDestination( new SingletonEndpoint(block.getDestination().getString()) );
+			ret.setDestination( toSingletonEndpoint(block.getDestinationString()) );
 		} else {
-			ret.setDestination( new GroupEndpoint(block.getDestination().getString()) );
+			ret.setDestination( toGroupEndpoint(block.getDestinationString()) );
 		}
 
-		ret.setSource( new SingletonEndpoint(block.getSource().getString()) );
-		ret.setReportto( new SingletonEndpoint(block.getReportto().getString()) );
-		ret.setCustodian( new SingletonEndpoint(block.getCustodian().getString()) );
+		ret.setSource( toSingletonEndpoint(block.getSourceString()) );
+		ret.setReportto( toSingletonEndpoint(block.getReporttoString()) );
+		ret.setCustodian( toSingletonEndpoint(block.getCustodianString()) );
 		
-		ret.setLifetime( block.getLifetime().get() );
+		ret.setLifetime( block.getLifetimeValue() );
 		
-		Timestamp ts = new Timestamp(block.getTimestamp().get());
+		Timestamp ts = new Timestamp(block.getTimestampValue());
 		ret.setTimestamp( ts );
 		
-		ret.setSequencenumber( block.getSequencenumber().get() );
+		ret.setSequencenumber( block.getSequencenumberValue() );
 
 		if (block.get(PrimaryBlock.FLAGS.FRAGMENT)) {
-			ret.setAppDataLength( block.getAppdatalength().get() );
-			ret.setFragmentOffset( block.getFragmentoffset().get() );
+			ret.setAppDataLength( block.getAppdatalengthValue() );
+			ret.setFragmentOffset( block.getFragmentoffsetValue() );
 			ret.setFragmentPayload( block.getPayloadLength() );
 		} else {
             ret.setAppDataLength( 0L );
@@ -792,16 +1680,16 @@ public class ClientSession {
 	private static BundleID toAndroid(de.tubs.ibr.dtn.swig.BundleID swigId) {
 		// convert from swig BundleID to api BundleID
 		BundleID id = new BundleID();
-		id.setSequencenumber(swigId.getSequencenumber().get());
-		id.setSource(new SingletonEndpoint(swigId.getSource().getString()));
+		id.setSequencenumber(swigId.getSequencenumberValue());
+		id.setSource(toSingletonEndpoint(swigId.getSourceString()));
 
-		long swigTime = swigId.getTimestamp().get();
+		long swigTime = swigId.getTimestampValue();
 		Timestamp ts = new Timestamp(swigTime);
 		id.setTimestamp(ts);
 		
 		if (swigId.isFragment()) {
 		    id.setFragment(true);
-		    id.setFragmentOffset(swigId.getFragmentoffset().get());
+		    id.setFragmentOffset(swigId.getFragmentoffsetValue());
 		    id.setFragmentPayload(swigId.getPayloadLength());
 		} else {
             id.setFragment(false);
@@ -0,0 +1,145 @@
+/*
+ * DaemonConfiguration.java
+ *
+ * Copyright (C) 2014 IBR, TU Braunschweig
+ *
+ * Written-by: Johannes Morgenroth <morgenroth@ibr.cs.tu-bs.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package de.tubs.ibr.dtn.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+/**
+ * Key-value model of the configuration file of the daemon.
+ */
+public class DaemonConfiguration {
+    private static final String TAG = "DaemonConfiguration";
+
+    private final LinkedHashMap<String, String> mValues = new LinkedHashMap<String, String>();
+
+    public void put(String key, String value) {
+        mValues.put(key, value.trim());
+    }
+
+    public String get(String key) {
+        return mValues.get(key);
+    }
+
+    public Map<String, String> getValues() {
+        return mValues;
+    }
+
+    /**
+     * Returns all keys with a different value in the other configuration
+     * including keys which are only set in one of both.
+     */
+    public Set<String> diff(DaemonConfiguration other) {
+        HashSet<String> ret = new HashSet<String>();
+
+        for (Map.Entry<String, String> e : mValues.entrySet()) {
+            if (!e.getValue().equals(other.mValues.get(e.getKey()))) ret.add(e.getKey());
+        }
+
+        for (String key : other.mValues.keySet()) {
+            if (!mValues.containsKey(key)) ret.add(key);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Load a configuration file. A missing or unreadable file results
+     * in an empty configuration.
+     */
+    public static DaemonConfiguration load(File file) {
+        DaemonConfiguration ret = new DaemonConfiguration();
+        if (!file.exists()) return ret;
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // skip comments
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+
+                int delimiter = line.indexOf('=');
+                if (delimiter < 0) continue;
+
+                String key = line.substring(0, delimiter).trim();
+                if (key.length() == 0) continue;
+
+                ret.put(key, line.substring(delimiter + 1).trim());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Problem reading config", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Write the configuration into the file if it differs from the
+     * current content of the file.
+     * @return True, if the file has been changed
+     */
+    public boolean save(File file) throws IOException {
+        if (diff(load(file)).isEmpty()) return false;
+
+        // write a temporary file and replace the configuration at once
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tmp);
+
+        try {
+            PrintStream p = new PrintStream(output);
+            for (Map.Entry<String, String> e : mValues.entrySet()) {
+                p.println(e.getKey() + " = " + e.getValue());
+            }
+            p.flush();
+        } finally {
+            output.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("can not replace " + file.getPath());
+        }
+
+        return true;
+    }
+}
@@ -23,10 +23,14 @@
 package de.tubs.ibr.dtn.service;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import android.content.Context;
 import android.content.Intent;
@@ -39,6 +43,8 @@ import de.tubs.ibr.dtn.api.Node;
 import de.tubs.ibr.dtn.api.SingletonEndpoint;
 import de.tubs.ibr.dtn.daemon.Preferences;
 import de.tubs.ibr.dtn.keyexchange.KeyExchangeService;
+import de.tubs.ibr.dtn.stats.ConvergenceLayerStatsEntry;
+import de.tubs.ibr.dtn.stats.StatsEntry;
 import de.tubs.ibr.dtn.swig.DaemonRunLevel;
 import de.tubs.ibr.dtn.swig.NativeDaemon;
 import de.tubs.ibr.dtn.swig.NativeDaemonCallback;
@@ -46,7 +52,6 @@ import de.tubs.ibr.dtn.swig.NativeDaemonException;
 import de.tubs.ibr.dtn.swig.NativeEventCallback;
 import de.tubs.ibr.dtn.swig.NativeKeyInfo;
 import de.tubs.ibr.dtn.swig.NativeNode;
-import de.tubs.ibr.dtn.swig.NativeStats;
 import de.tubs.ibr.dtn.swig.StringVec;
 
 public class DaemonProcess {
@@ -61,7 +66,18 @@ public class DaemonProcess {
 	private Boolean mLeModeEnabled = false;
 	private boolean mGlobalConnected = false;
 	
+	// configuration which has been applied to the daemon
+	private DaemonConfiguration mConfiguration = null;
+	
 	private WifiManager.MulticastLock mMcastLock = null;
+	
+	// reusable buffer for binary stats snapshots of the daemon
+	private ByteBuffer mStatsBuffer = null;
+	
+	// names of convergence-layers and tags indexed by their id
+	private final ArrayList<String> mStatsNames = new ArrayList<String>();
+	
+	private final static int STATS_BUFFER_SIZE = 1024;
 
 	private final static String GNUSTL_NAME = "gnustl_shared";
 	private final static String CRYPTO_NAME = "cryptox";
@@ -122,8 +138,51 @@ public class DaemonProcess {
         return new String[] { version.get(0), version.get(1) };
 	}
 	
-	public synchronized NativeStats getStats() {
-	    return mDaemon.getStats();
+	/**
+	 * Get the statistical data of the daemon
+	 * @param clstats List to add the convergence-layer stats to
+	 */
+	public synchronized StatsEntry getStats(List<ConvergenceLayerStatsEntry> clstats) {
+	    int capacity = STATS_BUFFER_SIZE;
+	    long length;
+	    
+	    // take a snapshot and grow the buffer until it fits
+	    do {
+	        if ((mStatsBuffer == null) || (mStatsBuffer.capacity() < capacity)) {
+	            mStatsBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	        }
+	        length = mDaemon.getStatsSnapshot(mStatsBuffer);
+	        capacity = (int)length;
+	    } while (length > mStatsBuffer.capacity());
+	    
+	    mStatsBuffer.clear();
+	    mStatsBuffer.limit((int)length);
+	    
+	    StatsEntry stats = new StatsEntry(mStatsBuffer);
+	    
+	    int count = mStatsBuffer.getInt();
+	    
+	    // skip padding
+	    mStatsBuffer.getInt();
+	    
+	    for (int i = 0; i < count; i++) {
+	        int cl = mStatsBuffer.getInt();
+	        int tag = mStatsBuffer.getInt();
+	        double value = mStatsBuffer.getDouble();
+	        
+	        // fetch names once an unknown id shows up
+	        if (Math.max(cl, tag) >= mStatsNames.size()) {
+	            StringVec names = mDaemon.getStatsNames();
+	            mStatsNames.clear();
+	            for (int j = 0; j < names.size(); j++) {
+	                mStatsNames.add(names.get(j));
+	            }
+	        }
+	        
+	        clstats.add(new ConvergenceLayerStatsEntry(stats.getTimestamp(), mStatsNames.get(cl), mStatsNames.get(tag), value));
+	    }
+	    
+	    return stats;
 	}
 	
 	public synchronized List<Node> getNeighbors() {
@@ -328,6 +387,27 @@ public class DaemonProcess {
 	
 	public synchronized void onPreferenceChanged(String prefkey, OnRestartListener listener) {
 		if (prefkey.startsWith("interface_")) prefkey = "interface_";
+
+		// same values never lead to a restart
+		if (!isConfigurationChanged()) return;
+
+		// apply interface changes to the running daemon if possible
+		if ("interface_".equals(prefkey)) {
+			onConfigurationChanged();
+			if (mDaemon.reconfigureNetwork()) {
+				if (listener != null) listener.OnReloadConfiguration();
+				return;
+			}
+		}
+
+		// swap the routing extensions without touching the networking stack
+		if (Preferences.KEY_ROUTING.equals(prefkey)) {
+			onConfigurationChanged();
+			mDaemon.reconfigureRouting();
+			if (listener != null) listener.OnReloadConfiguration();
+			return;
+		}
+
 		if (!mRestartMap.containsKey(prefkey)) return;
 		
 		int runlevel = mRestartMap.get(prefkey).swigValue() - 1;
@@ -379,11 +459,9 @@ public class DaemonProcess {
 		HashMap<String, DaemonRunLevel> ret = new HashMap<String, DaemonRunLevel>();
 
 		ret.put(Preferences.KEY_ENDPOINT_ID, DaemonRunLevel.RUNLEVEL_CORE);
-		ret.put(Preferences.KEY_ROUTING, DaemonRunLevel.RUNLEVEL_ROUTING_EXTENSIONS);
 		ret.put("interface_", DaemonRunLevel.RUNLEVEL_NETWORK);
 		ret.put(Preferences.KEY_TIMESYNC_MODE, DaemonRunLevel.RUNLEVEL_API);
 		ret.put(Preferences.KEY_STORAGE_MODE, DaemonRunLevel.RUNLEVEL_CORE);
-		ret.put(Preferences.KEY_UPLINK_MODE, DaemonRunLevel.RUNLEVEL_NETWORK);
 
 		return ret;
 	}
@@ -401,10 +479,52 @@ public class DaemonProcess {
     }
     
 	public synchronized void onConfigurationChanged() {
+		onConfigurationChanged(false);
+	}
+	
+	/**
+	 * Apply the configuration file to the daemon
+	 * @param reload Load the whole file even if no key has changed
+	 */
+	public synchronized void onConfigurationChanged(boolean reload) {
         String configPath = DaemonStorageUtils.getConfigurationFile(mContext);
+        DaemonConfiguration config = DaemonConfiguration.load(new File(configPath));
         
-        // set configuration file
-        mDaemon.setConfigFile(configPath);
+        if (reload || (mConfiguration == null)) {
+            // set configuration file
+            mDaemon.setConfigFile(configPath);
+        } else {
+            Set<String> changes = config.diff(mConfiguration);
+            
+            // nothing to do if all values are the same
+            if (changes.isEmpty()) return;
+            
+            StringVec keys = new StringVec();
+            StringVec values = new StringVec();
+            StringVec removed = new StringVec();
+            
+            for (String key : changes) {
+                String value = config.get(key);
+                if (value == null) {
+                    removed.add(key);
+                } else {
+                    keys.add(key);
+                    values.add(value);
+                }
+            }
+            
+            // push only the changed keys
+            mDaemon.setConfigValues(keys, values, removed);
+        }
+        
+        mConfiguration = config;
+	}
+	
+	private boolean isConfigurationChanged() {
+		if (mConfiguration == null) return true;
+		
+		String configPath = DaemonStorageUtils.getConfigurationFile(mContext);
+		return !DaemonConfiguration.load(new File(configPath)).diff(mConfiguration).isEmpty();
 	}
 	
 	private NativeEventCallback mEventCallback = new NativeEventCallback() {
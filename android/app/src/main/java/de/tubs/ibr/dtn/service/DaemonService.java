@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import android.annotation.TargetApi;
 import android.app.PendingIntent;
@@ -73,8 +74,6 @@ import de.tubs.ibr.dtn.stats.ConvergenceLayerStatsEntry;
 import de.tubs.ibr.dtn.stats.StatsContentProvider;
 import de.tubs.ibr.dtn.stats.StatsEntry;
 import de.tubs.ibr.dtn.swig.DaemonRunLevel;
-import de.tubs.ibr.dtn.swig.NativeStats;
-import de.tubs.ibr.dtn.swig.StringVec;
 
 public class DaemonService extends Service {
 	private static final String ACTION_INITIALIZE = "de.tubs.ibr.dtn.action.INITIALIZE";
@@ -107,6 +106,7 @@ public class DaemonService extends Service {
 	
 	public static final String ACTION_LOGGING_CHANGED = "de.tubs.ibr.dtn.action.LOGGING_CHANGED";
 	public static final String ACTION_CONFIGURATION_CHANGED = "de.tubs.ibr.dtn.action.CONFIGURATION_CHANGED";
+	public static final String EXTRA_CONFIGURATION_RELOAD = "de.tubs.ibr.dtn.action.CONFIGURATION_RELOAD";
 
 	public static final String PREFERENCE_NAME = "de.tubs.ibr.dtn.service_prefs";
 	
@@ -114,9 +114,29 @@ public class DaemonService extends Service {
 
 	private final String TAG = "DaemonService";
 
-	private HandlerThread mServiceThread;
-	private ServiceHandler mServiceHandler;
+	// intents are processed in separate lanes, each lane keeps the order of its intents
+	private HandlerThread mControlThread;
+	private ServiceHandler mControlHandler;
+
+	private HandlerThread mRegistrationThread;
+	private ServiceHandler mRegistrationHandler;
+
+	private HandlerThread mStatsThread;
+	private ServiceHandler mStatsHandler;
+
+	private HandlerThread mKeyExchangeThread;
+	private ServiceHandler mKeyExchangeHandler;
+
+	// released once ACTION_INITIALIZE has been processed or the service is destroyed
+	private final CountDownLatch mInitialized = new CountDownLatch(1);
+	private volatile boolean mDestroyed = false;
+
+	// start requests queued in any lane and not processed yet
+	private final Object mPendingLock = new Object();
+	private int mPendingIntents = 0;
+	private int mLastStartId = -1;
 	
+	private int MSG_WHAT_INTENT = 0;
 	private int MSG_WHAT_STOP_DISCOVERY = 1;
 	private int MSG_WHAT_COLLECT_STATS = 2;
 
@@ -128,12 +148,18 @@ public class DaemonService extends Service {
 
 	// the daemon process
 	private DaemonProcess mDaemonProcess = null;
+	
+	// live stats for subscribed listeners, sampled in the stats lane
+	private StatsFeed mStatsFeed = null;
 
 	// time-stamp of the last stats action
 	private Date mStatsLastAction = null;
 	
 	// global discovery state
 	private Boolean mDiscoveryState = false;
+
+	// last known connectivity state
+	private String mConnectivityState = null;
 	
 	// Last inspected Wi-Fi SSID
 	private String mDiscoverySsid = null;
@@ -186,6 +212,20 @@ public class DaemonService extends Service {
 		}
 	};
 	
+	private final ExtendedDTNService.Stub mExtendedBinder = new ExtendedDTNService.Stub() {
+		@Override
+		public ExtendedSession getSession(String sessionKey) throws RemoteException {
+			int caller = Binder.getCallingUid();
+			String[] packageNames = DaemonService.this.getPackageManager()
+					.getPackagesForUid(caller);
+
+			ClientSession cs = mSessionManager.getSession(packageNames, sessionKey);
+			if (cs == null)
+				return null;
+			return cs.getExtendedBinder();
+		}
+	};
+	
 	private final ControlService.Stub mControlBinder = new ControlService.Stub() {
 		@Override
 		public boolean isP2pSupported() throws RemoteException {
@@ -201,6 +241,16 @@ public class DaemonService extends Service {
 		public Bundle getStats() throws RemoteException {
 			return DaemonService.this.getStats();
 		}
+
+		@Override
+		public void subscribeStats(StatsListener listener, long interval) throws RemoteException {
+			mStatsFeed.subscribe(listener, interval);
+		}
+
+		@Override
+		public void unsubscribeStats(StatsListener listener) throws RemoteException {
+			mStatsFeed.unsubscribe(listener);
+		}
 	};
 	
 	private final KeyExchangeManager.Stub mKeyExchangeBinder = new KeyExchangeManager.Stub() {
@@ -292,6 +342,8 @@ public class DaemonService extends Service {
 			return mKeyExchangeBinder;
 		} else if (ControlService.class.getName().equals(name)) {
 			return mControlBinder;
+		} else if (ExtendedDTNService.class.getName().equals(name)) {
+			return mExtendedBinder;
 		} else if (Services.SERVICE_SECURITY.match(intent)) {
 			return mSecurityBinder;
 		} else if (Services.SERVICE_APPLICATION.match(intent)) {
@@ -316,6 +368,18 @@ public class DaemonService extends Service {
 		return i;
 	}
 
+	public static Intent createExtendedDtnServiceIntent(Context context) {
+		Intent i = new Intent(context, DaemonService.class);
+
+		// set action to make the intent unique
+		i.setAction(ExtendedDTNService.class.getName());
+
+		// add Service name
+		i.putExtra(Services.EXTRA_NAME, ExtendedDTNService.class.getName());
+
+		return i;
+	}
+
 	public static Intent createKeyExchangeManagerIntent(Context context) {
 		Intent i = new Intent(context, DaemonService.class);
 
@@ -351,10 +415,81 @@ public class DaemonService extends Service {
 		@Override
 		public void handleMessage(Message msg) {
 			Intent intent = (Intent) msg.obj;
+
+			// all lanes wait until the service is initialized
+			if (!ACTION_INITIALIZE.equals(intent.getAction())) {
+				try {
+					mService.mInitialized.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+
+			// drop intents released by the destruction of the service
+			if (mService.mDestroyed) return;
+
 			mService.onHandleIntent(intent, msg.arg1);
+
+			// the initialization job is no start request
+			if (msg.arg1 != -1) {
+				mService.onIntentProcessed(msg.what == mService.MSG_WHAT_INTENT);
+			}
+		}
+	}
+
+	/**
+	 * Returns the lane which processes intents with the given action
+	 */
+	private ServiceHandler getLane(String action) {
+		if (de.tubs.ibr.dtn.Intent.REGISTER.equals(action)
+				|| de.tubs.ibr.dtn.Intent.UNREGISTER.equals(action)) {
+			return mRegistrationHandler;
+		}
+
+		if (ACTION_STORE_STATS.equals(action) || ACTION_CLEAR_STORAGE.equals(action)) {
+			return mStatsHandler;
+		}
+
+		if (ACTION_START_KEY_EXCHANGE.equals(action)
+				|| ACTION_GIVE_PASSWORD_RESPONSE.equals(action)
+				|| ACTION_GIVE_HASH_RESPONSE.equals(action)
+				|| ACTION_GIVE_NEW_KEY_RESPONSE.equals(action)
+				|| ACTION_GIVE_QR_RESPONSE.equals(action)
+				|| ACTION_GIVE_NFC_RESPONSE.equals(action)
+				|| ACTION_REMOVE_KEY.equals(action)) {
+			return mKeyExchangeHandler;
+		}
+
+		return mControlHandler;
+	}
+
+	/**
+	 * Called by the lanes after an intent has been processed. Stops the
+	 * service if the daemon is offline and no lane has start requests queued.
+	 * @param started True, if the intent has been queued by onStart()
+	 */
+	private void onIntentProcessed(boolean started) {
+		synchronized (mPendingLock) {
+			if (started) mPendingIntents--;
+
+			// stop the daemon if it should be offline
+			if ((mPendingIntents == 0) && mDaemonProcess.getState().equals(DaemonState.OFFLINE)) {
+				stopSelf(mLastStartId);
+			}
 		}
 	}
 
+	private static HandlerThread createLane(String name) {
+		HandlerThread thread = new HandlerThread(name, android.os.Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		return thread;
+	}
+
+	private static void destroyLane(HandlerThread thread) throws InterruptedException {
+		thread.quit();
+		thread.join();
+	}
+
 	/**
 	 * Incoming Intents are handled here
 	 * 
@@ -447,6 +582,11 @@ public class DaemonService extends Service {
 				}
 			});
 
+			// the uplink mode only changes the decision about the global connectivity
+			if (Preferences.KEY_UPLINK_MODE.equals(prefkey) && (mConnectivityState != null)) {
+				onConnectivityChanged(mConnectivityState);
+			}
+
 			final Intent storeStatsIntent = new Intent(this, DaemonService.class);
 			storeStatsIntent.setAction(de.tubs.ibr.dtn.service.DaemonService.ACTION_STORE_STATS);
 			startService(storeStatsIntent);
@@ -488,56 +628,10 @@ public class DaemonService extends Service {
 				startService(discoIntent);
 			}
 		} else if (ACTION_CONNECTIVITY_CHANGED.equals(action)) {
-			// check connectivity and restart daemon if necessary
-			boolean newState = false;
-			
-			String state = intent.getStringExtra(EXTRA_CONNECTIVITY_STATE);
-			
-			// get preferences
-			SharedPreferences prefs = getSharedPreferences("dtnd", Context.MODE_PRIVATE);
-			String cloud_mode = prefs.getString(Preferences.KEY_UPLINK_MODE, "wifi");
-			
-			if ("offline".equals(state)) {
-				newState = false;
-			}
-			else if ("wifi".equals(state)) {
-				newState = "wifi".equals(cloud_mode) || "on".equals(cloud_mode);
-			}
-			else if ("metered".equals(state)) {
-				newState = "on".equals(cloud_mode);
-			}
-			else if ("online".equals(state)) {
-				newState = "on".equals(cloud_mode);
-			}
-			
-			// restart the daemon into the given run-level
-			mDaemonProcess.setGloballyConnected(newState, new DaemonProcess.OnRestartListener() {
-				@Override
-				public void OnStop(DaemonRunLevel previous, DaemonRunLevel next) {
-					if (next.swigValue() < DaemonRunLevel.RUNLEVEL_NETWORK.swigValue() && previous.swigValue() >= DaemonRunLevel.RUNLEVEL_NETWORK.swigValue()) {
-						// shutdown all networking components
-						Log.d(TAG, "connectivity: shutdown all networking components");
-						if (mP2pManager != null) mP2pManager.onDestroy();
-					}
-				}
-
-				@Override
-				public void OnStart(DaemonRunLevel previous, DaemonRunLevel next) {
-					if (previous.swigValue() < DaemonRunLevel.RUNLEVEL_NETWORK.swigValue() && next.swigValue() >= DaemonRunLevel.RUNLEVEL_NETWORK.swigValue()) {
-						// re-initialize all networking components
-						Log.d(TAG, "connectivity: re-initialize all networking components");
-						if (mP2pManager != null) mP2pManager.onCreate();
-					}
-				}
-
-				@Override
-				public void OnReloadConfiguration() {
-				}
-			});
-			
+			onConnectivityChanged(intent.getStringExtra(EXTRA_CONNECTIVITY_STATE));
 		} else if (ACTION_STORE_STATS.equals(action)) {
 			// cancel the next scheduled collection
-			mServiceHandler.removeMessages(MSG_WHAT_COLLECT_STATS);
+			mStatsHandler.removeMessages(MSG_WHAT_COLLECT_STATS);
 			
 			Calendar now = Calendar.getInstance();
 			now.roll(Calendar.MINUTE, -1);
@@ -552,18 +646,23 @@ public class DaemonService extends Service {
 			}
 
 			// schedule next collection in 15 minutes
-			Message msg = mServiceHandler.obtainMessage();
+			Message msg = mStatsHandler.obtainMessage();
 			msg.what = MSG_WHAT_COLLECT_STATS;
 			msg.arg1 = startId;
 			msg.obj = new Intent(ACTION_STORE_STATS);
-			mServiceHandler.sendMessageDelayed(msg, 900000);
+			mStatsHandler.sendMessageDelayed(msg, 900000);
 		} else if (ACTION_INITIALIZE.equals(action)) {
 			// initialize configuration
 			Preferences.initializeDefaultPreferences(DaemonService.this);
 			DaemonService.initializeDtndPreferences(DaemonService.this);
 
 			// initialize the daemon service
-			initialize();
+			try {
+				initialize();
+			} finally {
+				// release all other lanes
+				mInitialized.countDown();
+			}
 		} else if (ACTION_START_DISCOVERY.equals(action)) {
 			SharedPreferences prefs = getSharedPreferences("dtnd", Context.MODE_PRIVATE);
 			String discoMode = prefs.getString(Preferences.KEY_DISCOVERY_MODE, "smart");
@@ -576,16 +675,16 @@ public class DaemonService extends Service {
 			if (intent.hasExtra(EXTRA_DISCOVERY_DURATION) && !stayOn) {
 				Long duration = intent.getLongExtra(EXTRA_DISCOVERY_DURATION, 120);
 				
-				Message msg = mServiceHandler.obtainMessage();
+				Message msg = mControlHandler.obtainMessage();
 				msg.what = MSG_WHAT_STOP_DISCOVERY;
 				msg.arg1 = startId;
 				msg.obj = stopIntent;
-				mServiceHandler.sendMessageDelayed(msg, duration * 1000);
+				mControlHandler.sendMessageDelayed(msg, duration * 1000);
 
 				Log.i(TAG, "Discovery stop scheduled in " + duration + " seconds.");
 			}
 			else {
-				mServiceHandler.removeMessages(MSG_WHAT_STOP_DISCOVERY);
+				mControlHandler.removeMessages(MSG_WHAT_STOP_DISCOVERY);
 				Log.i(TAG, "Scheduled discovery stop removed.");
 			}
 
@@ -616,7 +715,7 @@ public class DaemonService extends Service {
 			}
 			
 			// remove all stop discovery messages
-			mServiceHandler.removeMessages(MSG_WHAT_STOP_DISCOVERY);
+			mControlHandler.removeMessages(MSG_WHAT_STOP_DISCOVERY);
 			Log.i(TAG, "Scheduled discovery stop removed.");
 		} else if (ACTION_START_KEY_EXCHANGE.equals(action)) {
 			int protocol = intent.getIntExtra("protocol", -1);
@@ -671,7 +770,7 @@ public class DaemonService extends Service {
 			sendOrderedBroadcast(broadcastIntent, null);
 		} else if (ACTION_CONFIGURATION_CHANGED.equals(action)) {
 			// signal a changed configuration to the daemon process
-			mDaemonProcess.onConfigurationChanged();
+			mDaemonProcess.onConfigurationChanged(intent.getBooleanExtra(EXTRA_CONFIGURATION_RELOAD, false));
 		} else if (ACTION_LOGGING_CHANGED.equals(action)) {
 			if (intent.hasExtra("filelogging")) {
 				String logFilePath = intent.getStringExtra("logfile");
@@ -691,30 +790,73 @@ public class DaemonService extends Service {
 				}
 			}
 		}
-
-		// stop the daemon if it should be offline
-		if (mDaemonProcess.getState().equals(DaemonState.OFFLINE) && (startId != -1))
-			stopSelf(startId);
 	}
 	
+	/**
+	 * Apply the connectivity state to the globally connected flag of the daemon
+	 */
+	private void onConnectivityChanged(String state) {
+		// check connectivity and restart daemon if necessary
+		boolean newState = false;
+		
+		// remember the state to re-evaluate it on uplink changes
+		mConnectivityState = state;
+		
+		// get preferences
+		SharedPreferences prefs = getSharedPreferences("dtnd", Context.MODE_PRIVATE);
+		String cloud_mode = prefs.getString(Preferences.KEY_UPLINK_MODE, "wifi");
+		
+		if ("offline".equals(state)) {
+			newState = false;
+		}
+		else if ("wifi".equals(state)) {
+			newState = "wifi".equals(cloud_mode) || "on".equals(cloud_mode);
+		}
+		else if ("metered".equals(state)) {
+			newState = "on".equals(cloud_mode);
+		}
+		else if ("online".equals(state)) {
+			newState = "on".equals(cloud_mode);
+		}
+		
+		// restart the daemon into the given run-level
+		mDaemonProcess.setGloballyConnected(newState, new DaemonProcess.OnRestartListener() {
+			@Override
+			public void OnStop(DaemonRunLevel previous, DaemonRunLevel next) {
+				if (next.swigValue() < DaemonRunLevel.RUNLEVEL_NETWORK.swigValue() && previous.swigValue() >= DaemonRunLevel.RUNLEVEL_NETWORK.swigValue()) {
+					// shutdown all networking components
+					Log.d(TAG, "connectivity: shutdown all networking components");
+					if (mP2pManager != null) mP2pManager.onDestroy();
+				}
+			}
+
+			@Override
+			public void OnStart(DaemonRunLevel previous, DaemonRunLevel next) {
+				if (previous.swigValue() < DaemonRunLevel.RUNLEVEL_NETWORK.swigValue() && next.swigValue() >= DaemonRunLevel.RUNLEVEL_NETWORK.swigValue()) {
+					// re-initialize all networking components
+					Log.d(TAG, "connectivity: re-initialize all networking components");
+					if (mP2pManager != null) mP2pManager.onCreate();
+				}
+			}
+
+			@Override
+			public void OnReloadConfiguration() {
+			}
+		});
+	}
+
 	public Bundle getStats() {
+		// create an array for CL stats
+		ArrayList<ConvergenceLayerStatsEntry> cl_stats = new ArrayList<ConvergenceLayerStatsEntry>();
+		
 		// retrieve stats of the native daemon
-		NativeStats nstats = mDaemonProcess.getStats();
+		StatsEntry stats = mDaemonProcess.getStats(cl_stats);
 		
 		// create a new bundle for statistics
 		Bundle stats_bundle = new Bundle();
 		
 		// create parcable stats object
-		stats_bundle.putParcelable("stats", new StatsEntry(nstats));
-		
-		// create an array for CL stats
-		ArrayList<ConvergenceLayerStatsEntry> cl_stats = new ArrayList<ConvergenceLayerStatsEntry>();
-
-		StringVec tags = nstats.getTags();
-		for (int i = 0; i < tags.size(); i++) {
-			ConvergenceLayerStatsEntry e = new ConvergenceLayerStatsEntry(nstats, tags.get(i), i);
-			cl_stats.add(e);
-		}
+		stats_bundle.putParcelable("stats", stats);
 		
 		// add CL stats to bundle
 		stats_bundle.putParcelableArrayList("clstats", cl_stats);
@@ -772,12 +914,20 @@ public class DaemonService extends Service {
 
 		/*
 		 * incoming Intents will be processed by ServiceHandler and queued in
-		 * HandlerThread
+		 * one HandlerThread per lane
 		 */
-		mServiceThread = new HandlerThread(TAG, android.os.Process.THREAD_PRIORITY_BACKGROUND);
-		mServiceThread.start();
-		Looper looper = mServiceThread.getLooper();
-		mServiceHandler = new ServiceHandler(looper, this);
+		mControlThread = createLane(TAG + "-control");
+		mControlHandler = new ServiceHandler(mControlThread.getLooper(), this);
+
+		mRegistrationThread = createLane(TAG + "-registration");
+		mRegistrationHandler = new ServiceHandler(mRegistrationThread.getLooper(), this);
+
+		mStatsThread = createLane(TAG + "-stats");
+		mStatsHandler = new ServiceHandler(mStatsThread.getLooper(), this);
+		mStatsFeed = new StatsFeed(mDaemonProcess, mStatsHandler);
+
+		mKeyExchangeThread = createLane(TAG + "-keyexchange");
+		mKeyExchangeHandler = new ServiceHandler(mKeyExchangeThread.getLooper(), this);
 
 		// create a session manager
 		mSessionManager = new SessionManager(this);
@@ -792,12 +942,12 @@ public class DaemonService extends Service {
 		final Intent intent = new Intent(this, DaemonService.class);
 		intent.setAction(de.tubs.ibr.dtn.service.DaemonService.ACTION_INITIALIZE);
 
-		// queue the initialization job as the first job of the handler
-		Message msg = mServiceHandler.obtainMessage();
+		// queue the initialization job as the first job of the control lane
+		Message msg = mControlHandler.obtainMessage();
 		msg.arg1 = -1; // invalid startId (this never leads to a stop of the
 						// service)
 		msg.obj = intent;
-		mServiceHandler.sendMessage(msg);
+		mControlHandler.sendMessage(msg);
 	}
 
 	/**
@@ -834,12 +984,21 @@ public class DaemonService extends Service {
 		if (mP2pManager != null)
 			mP2pManager.onDestroy();
 
+		// stop pushing live stats
+		mStatsFeed.destroy();
+
+		// release lanes still waiting for the initialization
+		mDestroyed = true;
+		mInitialized.countDown();
+
 		try {
-			// stop looper thread that handles incoming intents
-			mServiceThread.quit();
-			mServiceThread.join();
+			// stop looper threads that handle incoming intents
+			destroyLane(mControlThread);
+			destroyLane(mRegistrationThread);
+			destroyLane(mStatsThread);
+			destroyLane(mKeyExchangeThread);
 		} catch (InterruptedException e) {
-			Log.e(TAG, "Wait for looper thread was interrupted.", e);
+			Log.e(TAG, "Wait for looper threads was interrupted.", e);
 		}
 
 		// close all sessions
@@ -876,10 +1035,17 @@ public class DaemonService extends Service {
 		if (Log.isLoggable(TAG, Log.DEBUG))
 			Log.d(TAG, "Intent Action: " + action);
 
-		Message msg = mServiceHandler.obtainMessage();
+		synchronized (mPendingLock) {
+			mPendingIntents++;
+			mLastStartId = startId;
+		}
+
+		ServiceHandler lane = getLane(action);
+		Message msg = lane.obtainMessage();
+		msg.what = MSG_WHAT_INTENT;
 		msg.arg1 = startId;
 		msg.obj = intent;
-		mServiceHandler.sendMessage(msg);
+		lane.sendMessage(msg);
 	}
 
 	@Override
@@ -0,0 +1,101 @@
+/*
+ * ProgressThrottle.java
+ *
+ * Copyright (C) 2014 IBR, TU Braunschweig
+ *
+ * Written-by: Johannes Morgenroth <morgenroth@ibr.cs.tu-bs.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package de.tubs.ibr.dtn.service;
+
+import android.os.SystemClock;
+
+/**
+ * Decides which progress updates of a transfer are forwarded to the client.
+ * An update passes if one of the configured intervals elapsed since the last
+ * forwarded update. An interval of zero is disabled. If all intervals are
+ * disabled, every update passes.
+ */
+public class ProgressThrottle {
+
+    // default time between two progress updates in milliseconds
+    public static final long DEFAULT_TIME_INTERVAL = 100L;
+
+    private final long mByteInterval;
+    private final int mPercentStep;
+    private final long mTimeInterval;
+
+    private long mLastBytes = 0L;
+    private long mLastPercent = 0L;
+    private long mLastTime = 0L;
+
+    public ProgressThrottle() {
+        this(0L, 0, DEFAULT_TIME_INTERVAL);
+    }
+
+    public ProgressThrottle(long byteInterval, int percentStep, long timeInterval) {
+        mByteInterval = Math.max(0L, byteInterval);
+        mPercentStep = Math.max(0, percentStep);
+        mTimeInterval = Math.max(0L, timeInterval);
+    }
+
+    /**
+     * Create a new throttle with the same intervals and a fresh state.
+     */
+    public ProgressThrottle copy() {
+        return new ProgressThrottle(mByteInterval, mPercentStep, mTimeInterval);
+    }
+
+    /**
+     * Start a new transfer.
+     */
+    public void reset() {
+        mLastBytes = 0L;
+        mLastPercent = 0L;
+        mLastTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns true if the update should be forwarded.
+     * @param current Number of bytes transferred so far
+     * @param length Total number of bytes or a negative value if unknown
+     */
+    public boolean update(long current, long length) {
+        // the last update of a transfer is always forwarded
+        if (length >= 0 && current >= length) return commit(current, length);
+
+        if (mByteInterval == 0 && mPercentStep == 0 && mTimeInterval == 0) return commit(current, length);
+
+        if (mByteInterval > 0 && (current - mLastBytes) >= mByteInterval) return commit(current, length);
+
+        if (mPercentStep > 0 && length > 0 && (percent(current, length) - mLastPercent) >= mPercentStep) return commit(current, length);
+
+        if (mTimeInterval > 0 && (SystemClock.elapsedRealtime() - mLastTime) >= mTimeInterval) return commit(current, length);
+
+        return false;
+    }
+
+    private boolean commit(long current, long length) {
+        mLastBytes = current;
+        mLastPercent = (length > 0) ? percent(current, length) : 0L;
+        mLastTime = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    private static long percent(long current, long length) {
+        return (current * 100L) / length;
+    }
+}
@@ -21,8 +21,12 @@
  */
 package de.tubs.ibr.dtn.service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.annotation.TargetApi;
 import android.content.Context;
@@ -36,6 +40,7 @@ import de.tubs.ibr.dtn.api.Registration;
 import de.tubs.ibr.dtn.service.db.ApiDatabase;
 import de.tubs.ibr.dtn.service.db.Endpoint;
 import de.tubs.ibr.dtn.service.db.Session;
+import de.tubs.ibr.dtn.swig.NativeSessionDispatcher;
 import de.tubs.ibr.dtn.swig.NativeSessionException;
 
 public class SessionManager {
@@ -47,47 +52,214 @@ public class SessionManager {
 	
 	private HashMap<Session, ClientSession> mSessions = new HashMap<Session, ClientSession>();
 	
+	// number of threads receiving bundles for all sessions
+	private final static int RECEIVER_THREADS = 2;
+	
+	// number of bundles processed for a session before other sessions are served
+	private final static int RECEIVE_BATCH = 16;
+	
+	// shared receiver dispatcher
+	private NativeSessionDispatcher mDispatcher = null;
+	private final List<Thread> mReceiverThreads = new ArrayList<Thread>();
+	
+	// write-through cache of the database, client sessions are looked up by their session key
+	private final ConcurrentHashMap<String, ClientSession> mReceivers = new ConcurrentHashMap<String, ClientSession>();
+	private final ConcurrentHashMap<String, Session> mSessionsByPackage = new ConcurrentHashMap<String, Session>();
+	private final HashMap<Session, List<Endpoint>> mEndpoints = new HashMap<Session, List<Endpoint>>();
+	
+	// registration changes which arrive while the daemon restarts are applied on initialize()
+	private boolean mInitialized = false;
+	private final List<Runnable> mDeferred = new ArrayList<Runnable>();
+	
+	private final class ReceiverThread extends Thread {
+	    private final NativeSessionDispatcher mThreadDispatcher;
+	    
+	    public ReceiverThread(NativeSessionDispatcher dispatcher) {
+	        mThreadDispatcher = dispatcher;
+	    }
+	    
+        @Override
+        public void run() {
+            // lower the thread priority
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            
+            try {
+                while (true) {
+                    String key = mThreadDispatcher.next();
+                    
+                    try {
+                        ClientSession client = mReceivers.get(key);
+                        if (client != null && client.receive(RECEIVE_BATCH)) {
+                            // more bundles available, serve other sessions first
+                            mThreadDispatcher.signal(key);
+                        }
+                    } catch (RuntimeException e) {
+                        // keep the thread alive for all other sessions
+                        Log.e(TAG, "Receiving bundles of session " + key + " failed.", e);
+                    } finally {
+                        mThreadDispatcher.done(key);
+                    }
+                }
+            } catch (NativeSessionException e) {
+                // dispatcher aborted
+            }
+        }
+	}
+	
 	public SessionManager(Context context)
 	{
 		mContext = context;
 	}
 	
+	/**
+	 * Create a client session and attach it to the receiver dispatcher
+	 */
+	private ClientSession createClientSession(Session s) {
+	    ClientSession client = new ClientSession(this, s);
+	    mReceivers.put(s.getSessionKey(), client);
+	    client.attach(mDispatcher);
+	    return client;
+	}
+	
+	private void destroyClientSession(Session s, ClientSession client) {
+	    client.destroy();
+	    mReceivers.remove(s.getSessionKey());
+	}
+	
+	/**
+	 * Returns the cached endpoints of a session, they are loaded
+	 * from the database on first access
+	 */
+	private List<Endpoint> getCachedEndpoints(Session s) {
+	    List<Endpoint> endpoints = mEndpoints.get(s);
+	    if (endpoints == null) {
+	        endpoints = new ArrayList<Endpoint>(mDatabase.getEndpoints(s));
+	        mEndpoints.put(s, endpoints);
+	    }
+	    return endpoints;
+	}
+	
+	private boolean createEndpoint(Session s, GroupEndpoint group) {
+	    Endpoint e = mDatabase.createEndpoint(s, group);
+	    if (e == null) return false;
+	    getCachedEndpoints(s).add(e);
+	    return true;
+	}
+	
+	private void removeEndpoint(Session s, Endpoint e) {
+	    mDatabase.removeEndpoint(e);
+	    getCachedEndpoints(s).remove(e);
+	}
+	
+	private void removeSession(Session s) {
+	    mDatabase.removeSession(s);
+	    mSessionsByPackage.remove(s.getPackageName());
+	    mEndpoints.remove(s);
+	}
+	
 	public synchronized void initialize()
 	{
 		// open database
 		mDatabase.open(mContext);
 		
-		// daemon goes up, create all sessions
+		// start the receiver threads
+		mDispatcher = new NativeSessionDispatcher();
+		for (int i = 0; i < RECEIVER_THREADS; i++) {
+		    Thread t = new ReceiverThread(mDispatcher);
+		    t.start();
+		    mReceiverThreads.add(t);
+		}
+		
+		// daemon goes up, load all sessions and endpoints at once
 		List<Session> sessions = mDatabase.getSessions();
 		
-		for (Session s : sessions) {
-			// check if the application is still installed
-			if (isPackageInstalled(s.getPackageName())) {
-				// restore the session instance
-				ClientSession client = new ClientSession(this, s);
-				
-				// restore session registration
-				restore(s, client);
-				
-				// put the client session into the client list
-				mSessions.put(s, client);
-			} else {
-				Log.i(TAG, "Application " + s.getPackageName() + " is no longer installed.");
-				
-				// delete session if app is not installed
-				mDatabase.removeSession(s);
+		HashMap<Long, List<Endpoint>> endpoints = new HashMap<Long, List<Endpoint>>();
+		for (Endpoint e : mDatabase.getEndpoints()) {
+			List<Endpoint> list = endpoints.get(e.getSession());
+			if (list == null) {
+				list = new ArrayList<Endpoint>();
+				endpoints.put(e.getSession(), list);
 			}
+			list.add(e);
 		}
+		
+		for (Session s : sessions) {
+			mSessionsByPackage.put(s.getPackageName(), s);
+			
+			// fill the endpoint cache
+			List<Endpoint> list = endpoints.get(s.getId());
+			mEndpoints.put(s, (list == null) ? new ArrayList<Endpoint>() : list);
+			
+			// restore the session instance
+			ClientSession client = createClientSession(s);
+			
+			// restore session registration
+			restore(s, client);
+			
+			// put the client session into the client list
+			mSessions.put(s, client);
+		}
+		
+		mInitialized = true;
+		
+		// apply registration changes received during the restart in order
+		for (Runnable r : mDeferred) {
+			r.run();
+		}
+		mDeferred.clear();
+		
+		// check installed applications off the startup path
+		verifyPackages(sessions);
+	}
+	
+	/**
+	 * Remove sessions of applications which are no longer installed
+	 * in a background thread
+	 */
+	private void verifyPackages(final List<Session> sessions) {
+	    Thread t = new Thread() {
+	        @Override
+	        public void run() {
+	            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+	            
+	            for (Session s : sessions) {
+	                if (isPackageInstalled(s.getPackageName())) continue;
+	                
+	                Log.i(TAG, "Application " + s.getPackageName() + " is no longer installed.");
+	                
+	                // delete session if app is not installed
+	                unregister(s.getPackageName());
+	            }
+	        }
+	    };
+	    t.start();
 	}
 	
 	public synchronized void destroy()
 	{
+		mInitialized = false;
+		
 		// daemon goes down, destroy all sessions
-		for (ClientSession s : mSessions.values()) {
-			s.destroy();
+		for (Map.Entry<Session, ClientSession> e : mSessions.entrySet()) {
+			destroyClientSession(e.getKey(), e.getValue());
 		}
 		
 		mSessions.clear();
+		mSessionsByPackage.clear();
+		mEndpoints.clear();
+		
+		// stop the receiver threads
+		mDispatcher.abort();
+		for (Thread t : mReceiverThreads) {
+		    try {
+		        t.join();
+		    } catch (InterruptedException e) {
+		        Log.e(TAG, "Join on receiver thread failed.", e);
+		    }
+		}
+		mReceiverThreads.clear();
+		mDispatcher.delete();
+		mDispatcher = null;
 		
 		// close the database
 		mDatabase.close();
@@ -95,72 +267,108 @@ public class SessionManager {
 	
 	private void restore(Session s, ClientSession client) {
 		// restore session endpoints
-		List<Endpoint> endpoints = mDatabase.getEndpoints(s);
+		List<Endpoint> endpoints = getCachedEndpoints(s);
 		
-		for (Endpoint e : endpoints) {
-			try {
-				client.addEndpoint(e);
-			} catch (NativeSessionException e1) {
-				Log.e(TAG, "can not restore endpoint registration " + e, e1);
+		try {
+			client.restoreEndpoints(endpoints);
+		} catch (NativeSessionException ex) {
+			// restore one by one to skip invalid endpoints
+			for (Endpoint e : endpoints) {
+				try {
+					client.addEndpoint(e);
+				} catch (NativeSessionException e1) {
+					Log.e(TAG, "can not restore endpoint registration " + e, e1);
+				}
 			}
 		}
 	}
 	
 	private void apply(Session s, ClientSession client, Registration reg) throws NativeSessionException {
-	    if (reg.getEndpoint() != null) {
-    		// set default session endpoint
-    		mDatabase.setDefaultEndpoint(s, reg.getEndpoint());
-    		client.setDefaultEndpoint(reg.getEndpoint());
-	    }
-		
-		// iterate through new endpoints
+		// requested group endpoints
+		HashSet<String> requested = new HashSet<String>();
 		for (GroupEndpoint group : reg.getGroups()) {
-			if (mDatabase.createEndpoint(s, group) != null) {
-				client.addEndpoint(group);
-			}
+			requested.add(group.toString());
 		}
 		
-		// get already registered endpoints
-		List<Endpoint> endpoints = mDatabase.getEndpoints(s);
+		// endpoints to add to and to remove from the native registration
+		List<GroupEndpoint> added = new ArrayList<GroupEndpoint>();
+		List<Endpoint> created = new ArrayList<Endpoint>();
+		List<Endpoint> removed = new ArrayList<Endpoint>();
+		
+		List<Endpoint> endpoints = getCachedEndpoints(s);
 		
-		// iterate through endpoints
-		for (Endpoint e : endpoints) {
-			// check if the endpoint is still registered
-			boolean active = false;
+		mDatabase.beginTransaction();
+		try {
+			if (reg.getEndpoint() != null) {
+				// set default session endpoint
+				mDatabase.setDefaultEndpoint(s, reg.getEndpoint());
+			}
 			
-			// check if registered as group
-			for (GroupEndpoint group : reg.getGroups()) {
-				if (e.equals(group)) {
-					// mark as active
-					active = true;
-					break;
+			// remove endpoints which are no longer registered as group
+			HashSet<String> existing = new HashSet<String>();
+			for (Endpoint e : endpoints) {
+				if (e.asGroup() != null && requested.contains(e.getEndpoint())) {
+					existing.add(e.getEndpoint());
+				} else {
+					removed.add(e);
 				}
 			}
+			mDatabase.removeEndpoints(removed);
 			
-			if (!active) {
-				// remove registered endpoint
-				mDatabase.removeEndpoint(e);
+			// add new group endpoints
+			for (GroupEndpoint group : reg.getGroups()) {
+				if (existing.contains(group.toString())) continue;
 				
-				// remove endpoint from active client
-				client.removeEndpoint(e);
+				Endpoint e = mDatabase.createEndpoint(s, group);
+				if (e != null) {
+					existing.add(e.getEndpoint());
+					created.add(e);
+					added.add(group);
+				}
 			}
+			
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
 		}
+		
+		// update the cache after the transaction has been committed
+		if (reg.getEndpoint() != null) s.setDefaultEndpoint(reg.getEndpoint());
+		endpoints.removeAll(removed);
+		endpoints.addAll(created);
+		
+		// apply the changes to the native session
+		if (reg.getEndpoint() != null) client.setDefaultEndpoint(reg.getEndpoint());
+		client.removeEndpoints(removed);
+		client.addEndpoints(added);
 	}
 
 	@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
-	public synchronized void register(String packageName, Registration reg)
+	public synchronized void register(final String packageName, final Registration reg)
 	{
+		if (!mInitialized) {
+			Log.d(TAG, "session manager is down, defer registration of " + packageName);
+			mDeferred.add(new Runnable() {
+				@Override
+				public void run() {
+					register(packageName, reg);
+				}
+			});
+			return;
+		}
+		
 		// get session object
-		Session s = mDatabase.getSession(packageName);
+		Session s = mSessionsByPackage.get(packageName);
 		
 		try {
 			if (s == null)
 			{
 				// create a new registration
 				s = mDatabase.createSession(packageName, reg.getEndpoint());
+				mSessionsByPackage.put(packageName, s);
 				
 				// restore the session instance
-				ClientSession client = new ClientSession(this, s);
+				ClientSession client = createClientSession(s);
 				
 				// apply registration to the session
 				apply(s, client, reg);
@@ -194,9 +402,20 @@ public class SessionManager {
 		}
 	}
 	
-	public synchronized void unregister(String packageName)
+	public synchronized void unregister(final String packageName)
 	{
-		Session s = mDatabase.getSession(packageName);
+		if (!mInitialized) {
+			Log.d(TAG, "session manager is down, defer unregistration of " + packageName);
+			mDeferred.add(new Runnable() {
+				@Override
+				public void run() {
+					unregister(packageName);
+				}
+			});
+			return;
+		}
+		
+		Session s = mSessionsByPackage.get(packageName);
 		
 		// silently return if the session does not exists
 		if (s == null) return;
@@ -204,32 +423,32 @@ public class SessionManager {
 		Log.i(TAG, "destroy session " + s);
 		
 		// destroy active session
-		mSessions.get(s).destroy();
+		destroyClientSession(s, mSessions.get(s));
 		
 		// remove session from active session list
 		mSessions.remove(s);
 		
 		// delete session from database
-		mDatabase.removeSession(s);
+		removeSession(s);
 	}
 	
 	public synchronized void join(ClientSession client, Session s, GroupEndpoint group) throws NativeSessionException {
         // add new endpoint
-        if (mDatabase.createEndpoint(s, group) != null) {
+        if (createEndpoint(s, group)) {
             client.addEndpoint(group);
         }
 	}
 	
     public synchronized void leave(ClientSession client, Session s, GroupEndpoint group) throws NativeSessionException {
         // get already registered endpoints
-        List<Endpoint> endpoints = mDatabase.getEndpoints(s);
+        List<Endpoint> endpoints = getCachedEndpoints(s);
         
         // iterate through endpoints
         for (Endpoint e : endpoints) {
             // check if registered as group
             if (e.equals(group)) {
                 // remove registered endpoint
-                mDatabase.removeEndpoint(e);
+                removeEndpoint(s, e);
                 
                 // remove endpoint from active client
                 client.removeEndpoint(e);
@@ -240,16 +459,16 @@ public class SessionManager {
     }
     
     public synchronized List<Endpoint> getEndpoints(Session s) throws NativeSessionException {
-        return mDatabase.getEndpoints(s);
+        return new ArrayList<Endpoint>(getCachedEndpoints(s));
     }
 	
-	public synchronized ClientSession getSession(String[] packageNames, String sessionKey)
+	public ClientSession getSession(String[] packageNames, String sessionKey)
 	{
 		for (String packageName : packageNames) {
-			Session s = mDatabase.getSession(packageName, sessionKey);
-			if (s != null) {
+			Session s = mSessionsByPackage.get(packageName);
+			if (s != null && s.getSessionKey().equals(sessionKey)) {
 				// access granted
-				return mSessions.get(s);
+				return mReceivers.get(sessionKey);
 			}
 		}
 
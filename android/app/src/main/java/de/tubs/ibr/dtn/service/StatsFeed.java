@@ -0,0 +1,224 @@
+/*
+ * StatsFeed.java
+ *
+ * Copyright (C) 2014 IBR, TU Braunschweig
+ *
+ * Written-by: Johannes Morgenroth <morgenroth@ibr.cs.tu-bs.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package de.tubs.ibr.dtn.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import de.tubs.ibr.dtn.stats.ConvergenceLayerStatsEntry;
+import de.tubs.ibr.dtn.stats.StatsEntry;
+
+/**
+ * Pushes live stats of the daemon to subscribed listeners. The daemon is
+ * sampled at the shortest interval requested by any listener and only while
+ * at least one listener is subscribed. A new listener receives a full
+ * snapshot, afterwards updates only contain the values which have changed.
+ * Samples without any change are not pushed at all.
+ */
+public class StatsFeed {
+
+    // shortest interval between two updates in milliseconds
+    public static final long MIN_INTERVAL = 250L;
+
+    // true if the update is a full snapshot
+    public static final String EXTRA_FULL = "full";
+
+    // time of the sample in milliseconds since epoch
+    public static final String EXTRA_TIMESTAMP = "timestamp";
+
+    // daemon values, see StatsEntry.writeDelta()
+    public static final String EXTRA_VALUES = "values";
+
+    // bundle of convergence-layers, each with a bundle of tag values
+    public static final String EXTRA_CL_VALUES = "clvalues";
+
+    private final DaemonProcess mDaemonProcess;
+    private final Handler mHandler;
+
+    // the cookie of each listener is its requested interval
+    private final RemoteCallbackList<StatsListener> mListeners = new RemoteCallbackList<StatsListener>() {
+        @Override
+        public void onCallbackDied(StatsListener callback, Object cookie) {
+            update();
+        }
+    };
+
+    // current sampling interval, zero if stopped; guarded by mListeners
+    private long mInterval = 0L;
+
+    // last published sample, only accessed on the handler thread
+    private StatsEntry mLast = null;
+    private final HashMap<String, Double> mLastValues = new HashMap<String, Double>();
+
+    /**
+     * @param handler Handler of the thread used to sample the daemon
+     */
+    public StatsFeed(DaemonProcess process, Handler handler) {
+        mDaemonProcess = process;
+        mHandler = handler;
+    }
+
+    public void subscribe(StatsListener listener, long interval) {
+        if (!mListeners.register(listener, Math.max(MIN_INTERVAL, interval))) return;
+
+        // send a full snapshot to the new listener
+        final IBinder binder = listener.asBinder();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                publish(binder);
+            }
+        });
+
+        update();
+    }
+
+    public void unsubscribe(StatsListener listener) {
+        mListeners.unregister(listener);
+        update();
+    }
+
+    public void destroy() {
+        mListeners.kill();
+
+        synchronized (mListeners) {
+            mInterval = 0L;
+            mHandler.removeCallbacks(mSampleTask);
+        }
+    }
+
+    /**
+     * Adjust the sampling interval to the current listeners
+     */
+    private void update() {
+        synchronized (mListeners) {
+            long interval = 0L;
+
+            int n = mListeners.beginBroadcast();
+            for (int i = 0; i < n; i++) {
+                long requested = (Long)mListeners.getBroadcastCookie(i);
+                if ((interval == 0L) || (requested < interval)) interval = requested;
+            }
+            mListeners.finishBroadcast();
+
+            if (interval == mInterval) return;
+
+            boolean start = (mInterval == 0L);
+            mInterval = interval;
+
+            if (interval == 0L) {
+                mHandler.removeCallbacks(mSampleTask);
+            } else if (start) {
+                mHandler.removeCallbacks(mSampleTask);
+                mHandler.postDelayed(mSampleTask, interval);
+            }
+        }
+    }
+
+    private final Runnable mSampleTask = new Runnable() {
+        @Override
+        public void run() {
+            publish(null);
+
+            synchronized (mListeners) {
+                mHandler.removeCallbacks(this);
+                if (mInterval > 0L) mHandler.postDelayed(this, mInterval);
+            }
+        }
+    };
+
+    /**
+     * Take a sample and push it to all listeners
+     * @param full Listener which receives a full snapshot instead of the changes
+     */
+    private void publish(IBinder full) {
+        ArrayList<ConvergenceLayerStatsEntry> cl_stats = new ArrayList<ConvergenceLayerStatsEntry>();
+        StatsEntry stats = mDaemonProcess.getStats(cl_stats);
+
+        Bundle delta = createUpdate(stats, cl_stats, false);
+        Bundle snapshot = (full == null) ? null : createUpdate(stats, cl_stats, true);
+
+        // the sample is the base of the next changes
+        mLast = stats;
+        for (ConvergenceLayerStatsEntry e : cl_stats) {
+            mLastValues.put(e.getConvergenceLayer() + "|" + e.getDataTag(), e.getDataValue());
+        }
+
+        synchronized (mListeners) {
+            int n = mListeners.beginBroadcast();
+            for (int i = 0; i < n; i++) {
+                StatsListener listener = mListeners.getBroadcastItem(i);
+
+                try {
+                    if ((full != null) && (listener.asBinder() == full)) {
+                        listener.onStats(snapshot);
+                    } else if (delta != null) {
+                        listener.onStats(delta);
+                    }
+                } catch (RemoteException e) {
+                    // dead listeners are removed by the callback list
+                }
+            }
+            mListeners.finishBroadcast();
+        }
+    }
+
+    /**
+     * Create an update with all values or the values changed since the last sample
+     * @return The update or null if nothing has changed
+     */
+    private Bundle createUpdate(StatsEntry stats, ArrayList<ConvergenceLayerStatsEntry> cl_stats, boolean full) {
+        boolean changed = false;
+
+        Bundle values = new Bundle();
+        changed |= stats.writeDelta(full ? null : mLast, values);
+
+        Bundle cl_values = new Bundle();
+        for (ConvergenceLayerStatsEntry e : cl_stats) {
+            Double last = full ? null : mLastValues.get(e.getConvergenceLayer() + "|" + e.getDataTag());
+            if (e.getDataValue().equals(last)) continue;
+
+            Bundle tags = cl_values.getBundle(e.getConvergenceLayer());
+            if (tags == null) {
+                tags = new Bundle();
+                cl_values.putBundle(e.getConvergenceLayer(), tags);
+            }
+
+            tags.putDouble(e.getDataTag(), e.getDataValue());
+            changed = true;
+        }
+
+        if (!changed && !full) return null;
+
+        Bundle update = new Bundle();
+        update.putBoolean(EXTRA_FULL, full);
+        update.putLong(EXTRA_TIMESTAMP, stats.getTimestamp().getTime());
+        update.putBundle(EXTRA_VALUES, values);
+        update.putBundle(EXTRA_CL_VALUES, cl_values);
+        return update;
+    }
+}
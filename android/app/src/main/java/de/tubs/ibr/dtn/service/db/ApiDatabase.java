@@ -2,6 +2,7 @@ package de.tubs.ibr.dtn.service.db;
 
 import java.io.Closeable;
 import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -115,10 +116,10 @@ public class ApiDatabase implements Closeable {
 		return ret;
 	}
 	
-	public List<Endpoint> getEndpoints(Session s) {
+	public List<Endpoint> getEndpoints() {
 		List<Endpoint> ret = new LinkedList<Endpoint>();
 		
-		Cursor cur = mDatabase.query(TABLE_NAME_ENDPOINTS, Endpoint.PROJECTION, Endpoint.SESSION + " = ?", new String[] { s.getId().toString() }, null, null, null);
+		Cursor cur = mDatabase.query(TABLE_NAME_ENDPOINTS, Endpoint.PROJECTION, null, null, null, null, null);
 		try {
 			while (cur.moveToNext()) {
 				Endpoint e = new Endpoint(mContext, cur);
@@ -130,13 +131,14 @@ public class ApiDatabase implements Closeable {
 		return ret;
 	}
 	
-	private Endpoint getEndpoint(Long id) {
-		Endpoint ret = null;
+	public List<Endpoint> getEndpoints(Session s) {
+		List<Endpoint> ret = new LinkedList<Endpoint>();
 		
-		Cursor cur = mDatabase.query(TABLE_NAME_ENDPOINTS, Endpoint.PROJECTION, Endpoint.ID + " = ?", new String[] { id.toString() }, null, null, null);
+		Cursor cur = mDatabase.query(TABLE_NAME_ENDPOINTS, Endpoint.PROJECTION, Endpoint.SESSION + " = ?", new String[] { s.getId().toString() }, null, null, null);
 		try {
-			if (cur.moveToNext()) {
-				ret = new Endpoint(mContext, cur);
+			while (cur.moveToNext()) {
+				Endpoint e = new Endpoint(mContext, cur);
+				ret.add(e);
 			}
 		} finally {
 			cur.close();
@@ -226,6 +228,30 @@ public class ApiDatabase implements Closeable {
 		mDatabase.delete(TABLE_NAME_ENDPOINTS, Endpoint.ID + " = ?", new String[] { e.getId().toString() });
 	}
 	
+	public void removeEndpoints(Collection<Endpoint> endpoints) {
+		if (endpoints.isEmpty()) return;
+		
+		StringBuilder ids = new StringBuilder();
+		for (Endpoint e : endpoints) {
+			if (ids.length() > 0) ids.append(",");
+			ids.append(e.getId());
+		}
+		
+		mDatabase.delete(TABLE_NAME_ENDPOINTS, Endpoint.ID + " IN (" + ids.toString() + ")", null);
+	}
+	
+	public void beginTransaction() {
+		mDatabase.beginTransaction();
+	}
+	
+	public void setTransactionSuccessful() {
+		mDatabase.setTransactionSuccessful();
+	}
+	
+	public void endTransaction() {
+		mDatabase.endTransaction();
+	}
+	
 	public Endpoint createEndpoint(Session s, String endpoint, boolean singleton, boolean fqeid) {
 		ContentValues values = new ContentValues();
 		
@@ -240,7 +266,7 @@ public class ApiDatabase implements Closeable {
 			// return null if the endpoint is already registered
 			if (rowid == -1) return null;
 			
-			return getEndpoint(rowid);
+			return new Endpoint(rowid, s.getId(), endpoint, singleton, fqeid);
 		} catch (SQLException e) {
 			return null;
 		}
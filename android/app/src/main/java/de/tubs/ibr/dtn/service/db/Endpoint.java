@@ -36,6 +36,14 @@ public class Endpoint implements Comparable<Endpoint> {
     static final int COLUMN_ENDPOINT_SINGLETON = 3;
     static final int COLUMN_ENDPOINT_FQEID     = 4;
 	
+	public Endpoint(Long id, Long session, String endpoint, boolean singleton, boolean fqeid) {
+		mId = id;
+		mSession = session;
+		mEndpoint = endpoint;
+		mSingleton = singleton;
+		mFqeid = fqeid;
+	}
+	
 	public Endpoint(Context context, Cursor cursor) {
 		mId = cursor.getLong(COLUMN_ENDPOINT_ID);
 		mSession = cursor.getLong(COLUMN_ENDPOINT_SESSION);
@@ -1,19 +1,13 @@
 package de.tubs.ibr.dtn.stats;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.provider.BaseColumns;
 import android.util.Log;
-import de.tubs.ibr.dtn.api.Timestamp;
-import de.tubs.ibr.dtn.swig.NativeStats;
 
 public class ConvergenceLayerStatsEntry implements Parcelable {
     
@@ -49,32 +43,21 @@ public class ConvergenceLayerStatsEntry implements Parcelable {
     static final int COLUMN_STATS_DATA_TAG           = 3;
     static final int COLUMN_STATS_DATA_VALUE         = 4;
 
-    @SuppressLint("SimpleDateFormat")
     public ConvergenceLayerStatsEntry(Context context, Cursor cursor, ColumnsMap cmap) {
-        final DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        
         mId = cursor.getLong(cmap.mColumnId);
         
         setConvergenceLayer(cursor.getString(cmap.mConvergenceLayer));
         setDataTag(cursor.getString(cmap.mDataTag));
         setDataValue(cursor.getDouble(cmap.mDataValue));
         
-        try {
-            mTimestamp = formatter.parse(cursor.getString(cmap.mColumnTimestamp));
-        } catch (ParseException e) {
-            Log.e(TAG, "failed to convert date");
-        }
+        mTimestamp = new Date(cursor.getLong(cmap.mColumnTimestamp));
     }
     
-    public ConvergenceLayerStatsEntry(NativeStats stats, String tag, int index) {
-        mTimestamp = (new Timestamp(stats.getTimestamp())).getDate();
-        
-        // split tag at "|"
-        String[] tag_split = tag.split("\\|");
-        
-        mConvergenceLayer = tag_split[0];
-        mDataTag = tag_split[1];
-        mDataValue = Double.valueOf( stats.getData(index) );
+    public ConvergenceLayerStatsEntry(Date timestamp, String convergencelayer, String tag, double value) {
+        mTimestamp = timestamp;
+        mConvergenceLayer = convergencelayer;
+        mDataTag = tag;
+        mDataValue = value;
     }
     
     public Long getId() {
@@ -1,20 +1,24 @@
 
 package de.tubs.ibr.dtn.stats;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.List;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.util.Log;
 
@@ -26,6 +30,23 @@ public class StatsContentProvider extends ContentProvider {
 	public static final Uri STATS_URI = Uri.parse("content://" + AUTHORITY + "/stats");
 	public static final Uri CL_STATS_URI = Uri.parse("content://" + AUTHORITY + "/stats/cl");
 	
+	// downsampled statistics with one row per hour or day
+	public static final Uri STATS_HOURLY_URI = Uri.parse("content://" + AUTHORITY + "/stats/hourly");
+	public static final Uri STATS_DAILY_URI = Uri.parse("content://" + AUTHORITY + "/stats/daily");
+	public static final Uri CL_STATS_HOURLY_URI = Uri.parse("content://" + AUTHORITY + "/stats/cl/hourly");
+	public static final Uri CL_STATS_DAILY_URI = Uri.parse("content://" + AUTHORITY + "/stats/cl/daily");
+	
+	// aggregated series of the raw statistics, see querySeries()
+	public static final Uri STATS_SERIES_URI = Uri.parse("content://" + AUTHORITY + "/stats/series");
+	public static final Uri CL_STATS_SERIES_URI = Uri.parse("content://" + AUTHORITY + "/stats/cl/series");
+	
+	// width of the buckets of a series in milliseconds
+	public static final String PARAM_BUCKET = "bucket";
+	
+	// columns of a series returned as change per second or as change per bucket
+	public static final String PARAM_RATE = "rate";
+	public static final String PARAM_DELTA = "delta";
+	
     public final static String NOTIFY_DATABASE_UPDATED = "de.tubs.ibr.dtn.stats.DATABASE_UPDATED";
     
     private DBOpenHelper mHelper = null;
@@ -34,13 +55,35 @@ public class StatsContentProvider extends ContentProvider {
     private static final String DATABASE_NAME = "stats";
     private static final String[] TABLE_NAMES = { "dtnd", "cl" };
 	
-    private static final int DATABASE_VERSION = 6;
+    private static final int DATABASE_VERSION = 8;
+    
+    // rollup tiers: raw snapshots, hourly and daily aggregates
+    private static final String[] TIER_SUFFIX = { "", "_1h", "_1d" };
+    private static final long[] TIER_INTERVAL = { 0L, 3600000L, 86400000L };
+    
+    // time to keep the data of each tier in milliseconds (14 days, 90 days, 2 years)
+    private static final long[] TIER_RETENTION = { 14L * 86400000L, 90L * 86400000L, 730L * 86400000L };
+    
+    private static final Uri[][] TIER_URIS = {
+        { STATS_URI, STATS_HOURLY_URI, STATS_DAILY_URI },
+        { CL_STATS_URI, CL_STATS_HOURLY_URI, CL_STATS_DAILY_URI }
+    };
+    
+    // minimal time between two purges of old data in milliseconds
+    private static final long PURGE_INTERVAL = 3600000L;
+    
+    private final Object mPurgeLock = new Object();
+    private long mLastPurge = 0L;
+    private boolean mPurgeRunning = false;
+    
+    // set while a batch is applied to defer notifications to its end
+    private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<Boolean>();
     
-    // Database creation sql statement
-    private static final String DATABASE_CREATE_DTND = 
-            "CREATE TABLE " + TABLE_NAMES[0] + " (" +
+    // Database creation sql statements, timestamps are stored as milliseconds since epoch
+    private static String createDtndTable(String table) {
+        return "CREATE TABLE " + table + " (" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                StatsEntry.TIMESTAMP + " TEXT, " +
+                StatsEntry.TIMESTAMP + " INTEGER, " +
                 StatsEntry.UPTIME + " INTEGER, " +
                 StatsEntry.NEIGHBORS + " INTEGER, " +
                 StatsEntry.STORAGE_SIZE + " INTEGER, " +
@@ -56,15 +99,57 @@ public class StatsContentProvider extends ContentProvider {
                 StatsEntry.BUNDLE_STORED + " INTEGER, " +
                 StatsEntry.BUNDLE_TRANSMITTED + " INTEGER" +
             ");";
+    }
     
-    private static final String DATABASE_CREATE_CL = 
-            "CREATE TABLE " + TABLE_NAMES[1] + " (" +
+    private static String createClTable(String table) {
+        return "CREATE TABLE " + table + " (" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                ConvergenceLayerStatsEntry.TIMESTAMP + " TEXT, " +
+                ConvergenceLayerStatsEntry.TIMESTAMP + " INTEGER, " +
                 ConvergenceLayerStatsEntry.CONVERGENCE_LAYER + " TEXT, " +
                 ConvergenceLayerStatsEntry.DATA_TAG + " TEXT, " +
                 ConvergenceLayerStatsEntry.DATA_VALUE + " DOUBLE" +
             ");";
+    }
+    
+    // columns of the dtnd table except the id
+    private static final String DTND_COLUMNS =
+            StatsEntry.TIMESTAMP + ", " + StatsEntry.UPTIME + ", " + StatsEntry.NEIGHBORS + ", " +
+            StatsEntry.STORAGE_SIZE + ", " + StatsEntry.CLOCK_OFFSET + ", " + StatsEntry.CLOCK_RATING + ", " +
+            StatsEntry.CLOCK_ADJUSTMENTS + ", " + StatsEntry.BUNDLE_ABORTED + ", " + StatsEntry.BUNDLE_EXPIRED + ", " +
+            StatsEntry.BUNDLE_QUEUED + ", " + StatsEntry.BUNDLE_REQUEUED + ", " + StatsEntry.BUNDLE_STORED + ", " +
+            StatsEntry.BUNDLE_TRANSMITTED;
+    
+    // columns of the cl table except the id
+    private static final String CL_COLUMNS =
+            ConvergenceLayerStatsEntry.TIMESTAMP + ", " + ConvergenceLayerStatsEntry.CONVERGENCE_LAYER + ", " +
+            ConvergenceLayerStatsEntry.DATA_TAG + ", " + ConvergenceLayerStatsEntry.DATA_VALUE;
+    
+    // aggregation of a dtnd bucket; counters are cumulative, thus the maximum is the last value
+    private static final String DTND_AGGREGATE =
+            "MAX(" + StatsEntry.UPTIME + "), MAX(" + StatsEntry.NEIGHBORS + "), MAX(" + StatsEntry.STORAGE_SIZE + "), " +
+            "AVG(" + StatsEntry.CLOCK_OFFSET + "), AVG(" + StatsEntry.CLOCK_RATING + "), MAX(" + StatsEntry.CLOCK_ADJUSTMENTS + "), " +
+            "MAX(" + StatsEntry.BUNDLE_ABORTED + "), MAX(" + StatsEntry.BUNDLE_EXPIRED + "), MAX(" + StatsEntry.BUNDLE_QUEUED + "), " +
+            "MAX(" + StatsEntry.BUNDLE_REQUEUED + "), MAX(" + StatsEntry.BUNDLE_STORED + "), MAX(" + StatsEntry.BUNDLE_TRANSMITTED + ")";
+    
+    private static void createTables(SQLiteDatabase db, String suffix) {
+        String dtnd = TABLE_NAMES[0] + suffix;
+        String cl = TABLE_NAMES[1] + suffix;
+        
+        db.execSQL(createDtndTable(dtnd));
+        db.execSQL(createClTable(cl));
+        
+        // indexes for range scans over all or a single convergence-layer
+        db.execSQL("CREATE INDEX " + dtnd + "_timestamp ON " + dtnd + " (" + StatsEntry.TIMESTAMP + ")");
+        db.execSQL("CREATE INDEX " + cl + "_timestamp ON " + cl + " (" + ConvergenceLayerStatsEntry.TIMESTAMP + ")");
+        createClSeriesIndex(db, cl);
+    }
+    
+    // index to look up the previous sample of the same convergence-layer and tag
+    private static void createClSeriesIndex(SQLiteDatabase db, String cl) {
+        db.execSQL("CREATE INDEX " + cl + "_series ON " + cl + " (" +
+                ConvergenceLayerStatsEntry.CONVERGENCE_LAYER + ", " + ConvergenceLayerStatsEntry.DATA_TAG + ", " +
+                ConvergenceLayerStatsEntry.TIMESTAMP + ")");
+    }
 	
     private class DBOpenHelper extends SQLiteOpenHelper {
         
@@ -74,31 +159,47 @@ public class StatsContentProvider extends ContentProvider {
 
         @Override
         public void onCreate(SQLiteDatabase db) {
-            db.execSQL(DATABASE_CREATE_DTND);
-            db.execSQL(DATABASE_CREATE_CL);
+            for (String suffix : TIER_SUFFIX) {
+                createTables(db, suffix);
+            }
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            if ((oldVersion == 2) && (newVersion == 3)) {
-                Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
-                db.execSQL(DATABASE_CREATE_CL);
-            } else if ((oldVersion == 5) && (newVersion == 6)) {
+            if ((oldVersion == 7) && (newVersion == 8)) {
                 Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
-                // drop stats table
-                db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAMES[0]);
-                db.execSQL(DATABASE_CREATE_DTND);
-            } else if ((oldVersion == 4) && (newVersion == 5)) {
+                for (String suffix : TIER_SUFFIX) {
+                    db.execSQL("DROP INDEX IF EXISTS " + TABLE_NAMES[1] + suffix + "_layer");
+                    createClSeriesIndex(db, TABLE_NAMES[1] + suffix);
+                }
+            } else if ((oldVersion == 6) && (newVersion == 8)) {
                 Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
-                // drop stats table
-                db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAMES[0]);
-                db.execSQL(DATABASE_CREATE_DTND);
+                
+                // convert local text timestamps into milliseconds since epoch
+                final String timestamp = "CAST(strftime('%s', " + StatsEntry.TIMESTAMP + ", 'utc') AS INTEGER) * 1000";
+                
+                for (String table : TABLE_NAMES) {
+                    db.execSQL("ALTER TABLE " + table + " RENAME TO " + table + "_old");
+                }
+                
+                onCreate(db);
+                
+                db.execSQL("INSERT INTO " + TABLE_NAMES[0] + " (" + DTND_COLUMNS + ") SELECT " +
+                        DTND_COLUMNS.replaceFirst(StatsEntry.TIMESTAMP, timestamp) + " FROM " + TABLE_NAMES[0] + "_old");
+                db.execSQL("INSERT INTO " + TABLE_NAMES[1] + " (" + CL_COLUMNS + ") SELECT " +
+                        CL_COLUMNS.replaceFirst(ConvergenceLayerStatsEntry.TIMESTAMP, timestamp) + " FROM " + TABLE_NAMES[1] + "_old");
+                
+                for (String table : TABLE_NAMES) {
+                    db.execSQL("DROP TABLE " + table + "_old");
+                }
             } else {
                 Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
                         + newVersion + ", which will destroy all old data");
                 
                 for (String table : TABLE_NAMES) {
-                    db.execSQL("DROP TABLE IF EXISTS " + table);
+                    for (String suffix : TIER_SUFFIX) {
+                        db.execSQL("DROP TABLE IF EXISTS " + table + suffix);
+                    }
                 }
                 onCreate(db);
             }
@@ -123,20 +224,78 @@ public class StatsContentProvider extends ContentProvider {
 
 	@Override
 	public Uri insert(Uri uri, ContentValues values) {
-		if (STATS_URI.equals(uri)) {
-			mDatabase.insert(TABLE_NAMES[0], null, values);
-			
-			// finally purge old data
-			purge();
-		}
-		else if (CL_STATS_URI.equals(uri)) {
-			mDatabase.insert(TABLE_NAMES[1], null, values);
+		String table = getTable(uri);
+		if (table == null) return null;
+		
+		mDatabase.insert(table, null, values);
+		
+		// notifications of batches are sent once the batch is complete
+		if (mInBatch.get() == null) {
+			notifyDataChanged();
+			schedulePurge();
 		}
 
-		notifyDataChanged();
-
 		return uri;
 	}
+	
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		String table = getTable(uri);
+		if (table == null) return 0;
+		
+		mDatabase.beginTransaction();
+		try {
+			for (ContentValues v : values) {
+				mDatabase.insert(table, null, v);
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+		}
+		
+		notifyDataChanged();
+		schedulePurge();
+		
+		return values.length;
+	}
+	
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+		ContentProviderResult[] ret;
+		
+		mInBatch.set(Boolean.TRUE);
+		mDatabase.beginTransaction();
+		try {
+			ret = super.applyBatch(operations);
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+			mInBatch.remove();
+		}
+		
+		notifyDataChanged();
+		schedulePurge();
+		
+		return ret;
+	}
+	
+	private static String getTable(Uri uri) {
+		if (STATS_URI.equals(uri)) return TABLE_NAMES[0];
+		if (CL_STATS_URI.equals(uri)) return TABLE_NAMES[1];
+		return null;
+	}
+	
+	/**
+	 * Returns the table of any tier, rollup tiers are read-only
+	 */
+	private static String getTierTable(Uri uri) {
+		for (int i = 0; i < TABLE_NAMES.length; i++) {
+			for (int tier = 0; tier < TIER_SUFFIX.length; tier++) {
+				if (TIER_URIS[i][tier].equals(uri)) return TABLE_NAMES[i] + TIER_SUFFIX[tier];
+			}
+		}
+		return null;
+	}
 
 	@Override
 	public boolean onCreate() {
@@ -154,15 +313,92 @@ public class StatsContentProvider extends ContentProvider {
 	public Cursor query(Uri uri, String[] projection, String selection,
 			String[] selectionArgs, String sortOrder) {
 		
-		if (STATS_URI.equals(uri)) {
-			return mDatabase.query(TABLE_NAMES[0], projection, selection, selectionArgs, null, null, sortOrder);			
+		if (STATS_SERIES_URI.getPath().equals(uri.getPath())) {
+			return querySeries(uri, TABLE_NAMES[0], StatsEntry.PROJECTION, new String[0],
+					projection, selection, selectionArgs, sortOrder);
+		}
+		else if (CL_STATS_SERIES_URI.getPath().equals(uri.getPath())) {
+			return querySeries(uri, TABLE_NAMES[1], ConvergenceLayerStatsEntry.PROJECTION,
+					new String[] { ConvergenceLayerStatsEntry.CONVERGENCE_LAYER, ConvergenceLayerStatsEntry.DATA_TAG },
+					projection, selection, selectionArgs, sortOrder);
 		}
-		else if (CL_STATS_URI.equals(uri)) {
-			return mDatabase.query(TABLE_NAMES[1], projection, selection, selectionArgs, null, null, sortOrder);
+		
+		String table = getTierTable(uri);
+		if (table == null) return null;
+		
+		return mDatabase.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+	}
+	
+	/**
+	 * Query an aggregated series of a raw table. Rows matching the selection
+	 * are grouped into buckets of PARAM_BUCKET milliseconds and the given keys.
+	 * The timestamp of a row is the start of its bucket. Columns listed in
+	 * PARAM_RATE return the increase per second, columns listed in PARAM_DELTA
+	 * the increase within the bucket, and all other columns their average.
+	 * A decreasing counter counts as no increase.
+	 */
+	private Cursor querySeries(Uri uri, String table, String[] columns, String[] keys,
+			String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		final String timestamp = StatsEntry.TIMESTAMP;
+		
+		long bucket = 1L;
+		String param = uri.getQueryParameter(PARAM_BUCKET);
+		if (param != null) bucket = Math.max(1L, Long.parseLong(param));
+		
+		final List<String> valid = Arrays.asList(columns);
+		final List<String> key_list = Arrays.asList(keys);
+		final List<String> rates = uri.getQueryParameters(PARAM_RATE);
+		final List<String> deltas = uri.getQueryParameters(PARAM_DELTA);
+		
+		final String bucket_start = "(s." + timestamp + " / " + bucket + ") * " + bucket;
+		
+		StringBuilder group = new StringBuilder(bucket_start);
+		StringBuilder match = new StringBuilder();
+		for (String key : keys) {
+			group.append(", s.").append(key);
+			match.append(key).append(" = s.").append(key).append(" AND ");
 		}
-		else {
-			return null;
+		
+		StringBuilder select = new StringBuilder();
+		for (String column : (projection == null) ? columns : projection) {
+			if (!valid.contains(column)) {
+				throw new IllegalArgumentException("Unknown column " + column);
+			}
+			
+			if (select.length() > 0) select.append(", ");
+			
+			if (BaseColumns._ID.equals(column)) {
+				select.append("MAX(s.").append(column).append(")");
+			} else if (timestamp.equals(column)) {
+				select.append(bucket_start);
+			} else if (key_list.contains(column)) {
+				select.append("s.").append(column);
+			} else {
+				String delta = "CASE WHEN p." + column + " IS NULL THEN NULL " +
+						"WHEN s." + column + " < p." + column + " THEN 0 " +
+						"ELSE s." + column + " - p." + column + " END";
+				
+				if (rates.contains(column)) {
+					select.append("SUM(").append(delta).append(") * 1000.0 / SUM(s.").append(timestamp).append(" - p.").append(timestamp).append(")");
+				} else if (deltas.contains(column)) {
+					select.append("SUM(").append(delta).append(")");
+				} else {
+					select.append("AVG(s.").append(column).append(")");
+				}
+			}
+			
+			select.append(" AS ").append(column);
 		}
+		
+		// join each sample with the previous sample of the same keys
+		String sql = "SELECT " + select + " FROM (SELECT * FROM " + table +
+				((selection == null) ? "" : " WHERE " + selection) + ") s " +
+				"LEFT JOIN " + table + " p ON p." + BaseColumns._ID + " = (SELECT " + BaseColumns._ID + " FROM " + table + " " +
+				"WHERE " + match + timestamp + " < s." + timestamp + " ORDER BY " + timestamp + " DESC LIMIT 1) " +
+				"GROUP BY " + group +
+				((sortOrder == null) ? "" : " ORDER BY " + sortOrder);
+		
+		return mDatabase.rawQuery(sql, selectionArgs);
 	}
 
 	@Override
@@ -179,9 +415,7 @@ public class StatsContentProvider extends ContentProvider {
 			// store the stats object into the database
 			ContentValues values = new ContentValues();
 
-			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-			values.put(StatsEntry.TIMESTAMP, dateFormat.format(e.getTimestamp()));
+			values.put(StatsEntry.TIMESTAMP, e.getTimestamp().getTime());
 
 			values.put(StatsEntry.UPTIME, e.getUptime());
 			values.put(StatsEntry.NEIGHBORS, e.getNeighbors());
@@ -198,15 +432,19 @@ public class StatsContentProvider extends ContentProvider {
 			values.put(StatsEntry.BUNDLE_STORED, e.getBundleStored());
 			values.put(StatsEntry.BUNDLE_TRANSMITTED, e.getBundleTransmitted());
 
-			// insert stats into the database
-			context.getContentResolver().insert(StatsContentProvider.STATS_URI, values);
+			// collect the whole snapshot in one batch
+			ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+			ops.add(ContentProviderOperation.newInsert(StatsContentProvider.STATS_URI).withValues(values).build());
 
-			// store all convergence-layer stats
+			// add all convergence-layer stats
 			ArrayList<ConvergenceLayerStatsEntry> cl_stats = stats.getParcelableArrayList("clstats");
 
 			for (ConvergenceLayerStatsEntry cl : cl_stats) {
-				store(context, cl);
+				ops.add(ContentProviderOperation.newInsert(StatsContentProvider.CL_STATS_URI).withValues(getValues(cl)).build());
 			}
+
+			// insert stats into the database using a single transaction
+			context.getContentResolver().applyBatch(AUTHORITY, ops);
 		} catch (Exception e) {
 			Log.e(TAG, "store failed", e);
 		}
@@ -214,38 +452,114 @@ public class StatsContentProvider extends ContentProvider {
 
 	public static void store(Context context, ConvergenceLayerStatsEntry e) {
 		try {
-			// store the stats object into the database
-			ContentValues values = new ContentValues();
-	
-			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	
-			values.put(ConvergenceLayerStatsEntry.TIMESTAMP, dateFormat.format(e.getTimestamp()));
-	
-			values.put(ConvergenceLayerStatsEntry.CONVERGENCE_LAYER, e.getConvergenceLayer());
-			values.put(ConvergenceLayerStatsEntry.DATA_TAG, e.getDataTag());
-			values.put(ConvergenceLayerStatsEntry.DATA_VALUE, e.getDataValue());
-	
 			// store the message in the database
-			context.getContentResolver().insert(StatsContentProvider.CL_STATS_URI, values);
+			context.getContentResolver().insert(StatsContentProvider.CL_STATS_URI, getValues(e));
 		} catch (Exception e1) {
 			Log.e(TAG, "store failed", e1);
 		}
 	}
 
-	private void purge() {
-		final DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private static ContentValues getValues(ConvergenceLayerStatsEntry e) {
+		// store the stats object into the database
+		ContentValues values = new ContentValues();
 
-		// generate a time limit (14 days)
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.DATE, -14);
-		String timestamp_limit = formatter.format(cal.getTime());
+		values.put(ConvergenceLayerStatsEntry.TIMESTAMP, e.getTimestamp().getTime());
+
+		values.put(ConvergenceLayerStatsEntry.CONVERGENCE_LAYER, e.getConvergenceLayer());
+		values.put(ConvergenceLayerStatsEntry.DATA_TAG, e.getDataTag());
+		values.put(ConvergenceLayerStatsEntry.DATA_VALUE, e.getDataValue());
+
+		return values;
+	}
 
-		mDatabase.delete(TABLE_NAMES[0], StatsEntry.TIMESTAMP + " < ?", new String[] {
-			timestamp_limit
+	/**
+	 * Downsample and purge old data in the background, at most once per PURGE_INTERVAL
+	 */
+	private void schedulePurge() {
+		synchronized (mPurgeLock) {
+			long now = SystemClock.elapsedRealtime();
+			if (mPurgeRunning) return;
+			if ((mLastPurge > 0L) && ((now - mLastPurge) < PURGE_INTERVAL)) return;
+			
+			mPurgeRunning = true;
+			mLastPurge = now;
+		}
+		
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					purge();
+				} catch (Exception e) {
+					Log.e(TAG, "purge failed", e);
+				} finally {
+					synchronized (mPurgeLock) {
+						mPurgeRunning = false;
+					}
+				}
+			}
 		});
-		mDatabase.delete(TABLE_NAMES[1], ConvergenceLayerStatsEntry.TIMESTAMP + " < ?",
-				new String[] {
-					timestamp_limit
-				});
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+	}
+
+	private void purge() {
+		final long now = System.currentTimeMillis();
+
+		mDatabase.beginTransaction();
+		try {
+			// fill each rollup tier from the tier below
+			for (int tier = 1; tier < TIER_SUFFIX.length; tier++) {
+				rollup(tier, now);
+			}
+
+			// drop data beyond the retention time of each tier
+			for (int tier = 0; tier < TIER_SUFFIX.length; tier++) {
+				String[] limit = new String[] { String.valueOf(now - TIER_RETENTION[tier]) };
+				mDatabase.delete(TABLE_NAMES[0] + TIER_SUFFIX[tier], StatsEntry.TIMESTAMP + " < ?", limit);
+				mDatabase.delete(TABLE_NAMES[1] + TIER_SUFFIX[tier], ConvergenceLayerStatsEntry.TIMESTAMP + " < ?", limit);
+			}
+
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
+	/**
+	 * Aggregate all completed buckets of the tier below which are not
+	 * part of the given tier yet.
+	 */
+	private void rollup(int tier, long now) {
+		final long interval = TIER_INTERVAL[tier];
+		final String bucket = "(" + StatsEntry.TIMESTAMP + " / " + interval + ") * " + interval;
+
+		// only complete buckets are aggregated
+		final Long end = (now / interval) * interval;
+
+		String source = TABLE_NAMES[0] + TIER_SUFFIX[tier - 1];
+		String target = TABLE_NAMES[0] + TIER_SUFFIX[tier];
+		mDatabase.execSQL("INSERT INTO " + target + " (" + DTND_COLUMNS + ") " +
+				"SELECT " + bucket + " AS bucket, " + DTND_AGGREGATE + " FROM " + source + " " +
+				"WHERE " + StatsEntry.TIMESTAMP + " >= ? AND " + StatsEntry.TIMESTAMP + " < ? GROUP BY bucket",
+				new Object[] { getRollupStart(target, interval), end });
+
+		source = TABLE_NAMES[1] + TIER_SUFFIX[tier - 1];
+		target = TABLE_NAMES[1] + TIER_SUFFIX[tier];
+		mDatabase.execSQL("INSERT INTO " + target + " (" + CL_COLUMNS + ") " +
+				"SELECT " + bucket + " AS bucket, " + ConvergenceLayerStatsEntry.CONVERGENCE_LAYER + ", " +
+				ConvergenceLayerStatsEntry.DATA_TAG + ", MAX(" + ConvergenceLayerStatsEntry.DATA_VALUE + ") FROM " + source + " " +
+				"WHERE " + ConvergenceLayerStatsEntry.TIMESTAMP + " >= ? AND " + ConvergenceLayerStatsEntry.TIMESTAMP + " < ? " +
+				"GROUP BY bucket, " + ConvergenceLayerStatsEntry.CONVERGENCE_LAYER + ", " + ConvergenceLayerStatsEntry.DATA_TAG,
+				new Object[] { getRollupStart(target, interval), end });
+	}
+
+	/**
+	 * Returns the start of the first bucket not yet aggregated into the table
+	 */
+	private Long getRollupStart(String table, long interval) {
+		long last = DatabaseUtils.longForQuery(mDatabase,
+				"SELECT IFNULL(MAX(" + StatsEntry.TIMESTAMP + "), -1) FROM " + table, null);
+		return (last < 0) ? 0L : last + interval;
 	}
 }
@@ -1,19 +1,16 @@
 package de.tubs.ibr.dtn.stats;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.provider.BaseColumns;
 import android.util.Log;
 import de.tubs.ibr.dtn.api.Timestamp;
-import de.tubs.ibr.dtn.swig.NativeStats;
 
 public class StatsEntry implements Parcelable {
     
@@ -89,10 +86,7 @@ public class StatsEntry implements Parcelable {
     static final int COLUMN_STATS_BUNDLE_STORED      = 12;
     static final int COLUMN_STATS_BUNDLE_TRANSMITTED = 13;
 
-    @SuppressLint("SimpleDateFormat")
     public StatsEntry(Context context, Cursor cursor, ColumnsMap cmap) {
-        final DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        
         mId = cursor.getLong(cmap.mColumnId);
         
         mNeighbors = cursor.getLong(cmap.mColumnNeighbors);
@@ -108,27 +102,101 @@ public class StatsEntry implements Parcelable {
         mBundleStored = cursor.getLong(cmap.mColumnBundleStored);
         mBundleTransmitted = cursor.getLong(cmap.mColumnBundleTransmitted);
         
-        try {
-            mTimestamp = formatter.parse(cursor.getString(cmap.mColumnTimestamp));
-        } catch (ParseException e) {
-            Log.e(TAG, "failed to convert date");
-        }
+        mTimestamp = new Date(cursor.getLong(cmap.mColumnTimestamp));
+    }
+    
+    public StatsEntry() {
+    }
+    
+    public StatsEntry(StatsEntry other) {
+        mId = other.mId;
+        mTimestamp = other.mTimestamp;
+        mUptime = other.mUptime;
+        mNeighbors = other.mNeighbors;
+        mStorageSize = other.mStorageSize;
+        mClockOffset = other.mClockOffset;
+        mClockRating = other.mClockRating;
+        mClockAdjustments = other.mClockAdjustments;
+        mBundleAborted = other.mBundleAborted;
+        mBundleExpired = other.mBundleExpired;
+        mBundleQueued = other.mBundleQueued;
+        mBundleRequeued = other.mBundleRequeued;
+        mBundleStored = other.mBundleStored;
+        mBundleTransmitted = other.mBundleTransmitted;
+    }
+    
+    /**
+     * Read the header of a binary stats snapshot of the daemon
+     */
+    public StatsEntry(ByteBuffer snapshot) {
+        mTimestamp = (new Timestamp(snapshot.getLong())).getDate();
+        mUptime = snapshot.getLong();
+        mNeighbors = snapshot.getLong();
+        mStorageSize = snapshot.getLong();
+        mClockOffset = snapshot.getDouble();
+        mClockRating = snapshot.getDouble();
+        mClockAdjustments = snapshot.getLong();
+        mBundleStored = snapshot.getLong();
+        mBundleExpired = snapshot.getLong();
+        mBundleTransmitted = snapshot.getLong();
+        mBundleAborted = snapshot.getLong();
+        mBundleRequeued = snapshot.getLong();
+        mBundleQueued = snapshot.getLong();
+    }
+    
+    /**
+     * Put all values which differ from the previous entry into the bundle
+     * using the column names as keys.
+     * @param previous The previous entry or null to put all values
+     * @return True, if at least one value has been put
+     */
+    public boolean writeDelta(StatsEntry previous, Bundle delta) {
+        boolean changed = false;
+        
+        changed |= putDelta(delta, UPTIME, (previous == null) ? null : previous.mUptime, mUptime);
+        changed |= putDelta(delta, NEIGHBORS, (previous == null) ? null : previous.mNeighbors, mNeighbors);
+        changed |= putDelta(delta, STORAGE_SIZE, (previous == null) ? null : previous.mStorageSize, mStorageSize);
+        changed |= putDelta(delta, CLOCK_OFFSET, (previous == null) ? null : previous.mClockOffset, mClockOffset);
+        changed |= putDelta(delta, CLOCK_RATING, (previous == null) ? null : previous.mClockRating, mClockRating);
+        changed |= putDelta(delta, CLOCK_ADJUSTMENTS, (previous == null) ? null : previous.mClockAdjustments, mClockAdjustments);
+        changed |= putDelta(delta, BUNDLE_ABORTED, (previous == null) ? null : previous.mBundleAborted, mBundleAborted);
+        changed |= putDelta(delta, BUNDLE_EXPIRED, (previous == null) ? null : previous.mBundleExpired, mBundleExpired);
+        changed |= putDelta(delta, BUNDLE_QUEUED, (previous == null) ? null : previous.mBundleQueued, mBundleQueued);
+        changed |= putDelta(delta, BUNDLE_REQUEUED, (previous == null) ? null : previous.mBundleRequeued, mBundleRequeued);
+        changed |= putDelta(delta, BUNDLE_STORED, (previous == null) ? null : previous.mBundleStored, mBundleStored);
+        changed |= putDelta(delta, BUNDLE_TRANSMITTED, (previous == null) ? null : previous.mBundleTransmitted, mBundleTransmitted);
+        
+        return changed;
+    }
+    
+    /**
+     * Apply the values of a bundle created by writeDelta()
+     */
+    public void applyDelta(Bundle delta) {
+        if (delta.containsKey(UPTIME)) mUptime = delta.getLong(UPTIME);
+        if (delta.containsKey(NEIGHBORS)) mNeighbors = delta.getLong(NEIGHBORS);
+        if (delta.containsKey(STORAGE_SIZE)) mStorageSize = delta.getLong(STORAGE_SIZE);
+        if (delta.containsKey(CLOCK_OFFSET)) mClockOffset = delta.getDouble(CLOCK_OFFSET);
+        if (delta.containsKey(CLOCK_RATING)) mClockRating = delta.getDouble(CLOCK_RATING);
+        if (delta.containsKey(CLOCK_ADJUSTMENTS)) mClockAdjustments = delta.getLong(CLOCK_ADJUSTMENTS);
+        if (delta.containsKey(BUNDLE_ABORTED)) mBundleAborted = delta.getLong(BUNDLE_ABORTED);
+        if (delta.containsKey(BUNDLE_EXPIRED)) mBundleExpired = delta.getLong(BUNDLE_EXPIRED);
+        if (delta.containsKey(BUNDLE_QUEUED)) mBundleQueued = delta.getLong(BUNDLE_QUEUED);
+        if (delta.containsKey(BUNDLE_REQUEUED)) mBundleRequeued = delta.getLong(BUNDLE_REQUEUED);
+        if (delta.containsKey(BUNDLE_STORED)) mBundleStored = delta.getLong(BUNDLE_STORED);
+        if (delta.containsKey(BUNDLE_TRANSMITTED)) mBundleTransmitted = delta.getLong(BUNDLE_TRANSMITTED);
+    }
+    
+    private static boolean putDelta(Bundle delta, String key, Long previous, Long value) {
+        if ((value == null) || value.equals(previous)) return false;
+        delta.putLong(key, value);
+        return true;
     }
     
-    public StatsEntry(NativeStats stats) {
-        mTimestamp = (new Timestamp(stats.getTimestamp())).getDate();
-        mNeighbors = stats.getNeighbors();
-        mUptime = stats.getUptime();
-        mStorageSize = stats.getStorage_size();
-        mClockOffset = stats.getTime_offset();
-        mClockRating = stats.getTime_rating();
-        mClockAdjustments = stats.getTime_adjustments();
-        mBundleAborted = stats.getBundles_aborted();
-        mBundleExpired = stats.getBundles_expired();
-        mBundleQueued = stats.getBundles_queued();
-        mBundleRequeued = stats.getBundles_requeued();
-        mBundleStored = stats.getBundles_stored();
-        mBundleTransmitted = stats.getBundles_transmitted();
+    private static boolean putDelta(Bundle delta, String key, Double previous, Double value) {
+        if ((value == null) || value.equals(previous)) return false;
+        delta.putDouble(key, value);
+        return true;
     }
     
     public Long getId() {
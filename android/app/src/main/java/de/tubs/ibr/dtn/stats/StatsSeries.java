@@ -0,0 +1,134 @@
+package de.tubs.ibr.dtn.stats;
+
+import com.jjoe64.graphview.GraphViewDataInterface;
+
+/**
+ * Chart series of a fixed number of points backed by primitive arrays.
+ * If the series is full, appending a point drops the oldest one.
+ */
+public class StatsSeries {
+    private final double[] mX;
+    private final double[] mY;
+
+    private int mStart = 0;
+    private int mSize = 0;
+
+    // ordered copies of the points, the chart keeps one while the other is filled
+    private final Snapshot[] mSnapshots;
+    private int mSnapshot = 0;
+
+    private static class Snapshot {
+        public final double[] x;
+        public final double[] y;
+        public final Point[] points;
+        public GraphViewDataInterface[] data = null;
+
+        public Snapshot(int capacity) {
+            x = new double[capacity];
+            y = new double[capacity];
+            points = new Point[capacity];
+
+            for (int i = 0; i < capacity; i++) {
+                points[i] = new Point(this, i);
+            }
+        }
+    }
+
+    private static class Point implements GraphViewDataInterface {
+        private final Snapshot mSnapshot;
+        private final int mIndex;
+
+        public Point(Snapshot snapshot, int index) {
+            mSnapshot = snapshot;
+            mIndex = index;
+        }
+
+        @Override
+        public double getX() {
+            return mSnapshot.x[mIndex];
+        }
+
+        @Override
+        public double getY() {
+            return mSnapshot.y[mIndex];
+        }
+    }
+
+    public StatsSeries(int capacity) {
+        mX = new double[capacity];
+        mY = new double[capacity];
+        mSnapshots = new Snapshot[] { new Snapshot(capacity), new Snapshot(capacity) };
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Add a point to the end of the series. A point with the same x value
+     * as the last point replaces it, older points are ignored.
+     */
+    public void put(double x, double y) {
+        final int capacity = mX.length;
+
+        if (mSize > 0) {
+            int last = (mStart + mSize - 1) % capacity;
+
+            if (x == mX[last]) {
+                mY[last] = y;
+                return;
+            }
+
+            if (x < mX[last]) return;
+        }
+
+        int slot = (mStart + mSize) % capacity;
+
+        if (mSize == capacity) {
+            // drop the oldest point
+            mStart = (mStart + 1) % capacity;
+        } else {
+            mSize++;
+        }
+
+        mX[slot] = x;
+        mY[slot] = y;
+    }
+
+    /**
+     * Remove all points before the given x value
+     */
+    public void trim(double x) {
+        while ((mSize > 0) && (mX[mStart] < x)) {
+            mStart = (mStart + 1) % mX.length;
+            mSize--;
+        }
+    }
+
+    /**
+     * Returns a copy of the points in order. The copy is not affected by
+     * later changes of the series, but it is reused by the next but one call.
+     */
+    public GraphViewDataInterface[] getData() {
+        mSnapshot = (mSnapshot + 1) % mSnapshots.length;
+        Snapshot s = mSnapshots[mSnapshot];
+
+        if ((s.data == null) || (s.data.length != mSize)) {
+            s.data = new GraphViewDataInterface[mSize];
+            System.arraycopy(s.points, 0, s.data, 0, mSize);
+        }
+
+        for (int i = 0; i < mSize; i++) {
+            int slot = (mStart + i) % mX.length;
+            s.x[i] = mX[slot];
+            s.y[i] = mY[slot];
+        }
+
+        return s.data;
+    }
+}
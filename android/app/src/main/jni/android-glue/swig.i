@@ -101,8 +101,38 @@ namespace std {
 
 %include "../ibrdtn/ibrdtn/data/EID.h"
 %include "../ibrdtn/ibrdtn/data/BundleID.h"
+
+namespace std {
+    %template(BundleIDVec) std::vector<dtn::data::BundleID>;
+}
 %include "../ibrdtn/ibrdtn/data/PrimaryBlock.h"
 
+/* Primitive accessors to avoid a proxy object per numeric field or EID */
+%extend dtn::data::BundleID {
+    std::string getSourceString() const { return $self->source.getString(); }
+
+    size_t getTimestampValue() const { return $self->timestamp.get(); }
+    void setTimestampValue(size_t value) { $self->timestamp = value; }
+
+    size_t getSequencenumberValue() const { return $self->sequencenumber.get(); }
+    void setSequencenumberValue(size_t value) { $self->sequencenumber = value; }
+
+    size_t getFragmentoffsetValue() const { return $self->fragmentoffset.get(); }
+    void setFragmentoffsetValue(size_t value) { $self->fragmentoffset = value; }
+}
+
+%extend dtn::data::PrimaryBlock {
+    std::string getDestinationString() const { return $self->destination.getString(); }
+    std::string getReporttoString() const { return $self->reportto.getString(); }
+    std::string getCustodianString() const { return $self->custodian.getString(); }
+
+    size_t getLifetimeValue() const { return $self->lifetime.get(); }
+    void setLifetimeValue(size_t value) { $self->lifetime = value; }
+
+    size_t getAppdatalengthValue() const { return $self->appdatalength.get(); }
+    void setAppdatalengthValue(size_t value) { $self->appdatalength = value; }
+}
+
 %template(PrimaryBlockFlags) dtn::data::Bitset<dtn::data::PrimaryBlock::FLAGS>;
 
 %include "../ibrdtn/ibrdtn/data/DTNTime.h"
@@ -122,6 +152,20 @@ namespace std {
 %apply char *BYTE { char *buf }
 %apply int &INOUT { size_t &len }
 
+// map direct java.nio.ByteBuffer to the stats snapshot buffer
+%typemap(jni) (char *snapshot, size_t capacity) "jobject"
+%typemap(jtype) (char *snapshot, size_t capacity) "java.nio.ByteBuffer"
+%typemap(jstype) (char *snapshot, size_t capacity) "java.nio.ByteBuffer"
+%typemap(javain) (char *snapshot, size_t capacity) "$javainput"
+%typemap(in) (char *snapshot, size_t capacity) {
+  $1 = (char *)jenv->GetDirectBufferAddress($input);
+  if ($1 == NULL) {
+    SWIG_JavaThrowException(jenv, SWIG_JavaIllegalArgumentException, "direct buffer required");
+    return $null;
+  }
+  $2 = (size_t)jenv->GetDirectBufferCapacity($input);
+}
+
 %typemap(throws, throws="NativeDaemonException") dtn::daemon::NativeDaemonException {
   jclass excep = jenv->FindClass("de/tubs/ibr/dtn/swig/NativeDaemonException");
   if (excep)
@@ -391,6 +391,27 @@ namespace dtn
 			}
 
 			// load all configuration extensions
+			loadExtensions();
+		}
+
+		void Configuration::update(const std::map<std::string, std::string> &changed, const std::set<std::string> &removed)
+		{
+			for (std::set<std::string>::const_iterator iter = removed.begin(); iter != removed.end(); ++iter)
+			{
+				if (_conf.keyExists(*iter)) _conf.remove(*iter);
+			}
+
+			for (std::map<std::string, std::string>::const_iterator iter = changed.begin(); iter != changed.end(); ++iter)
+			{
+				_conf.add<std::string>(iter->first, iter->second);
+			}
+
+			// re-load all configuration extensions
+			loadExtensions();
+		}
+
+		void Configuration::loadExtensions()
+		{
 			_disco.load(_conf);
 			_debug.load(_conf);
 			_logger.load(_conf);
@@ -690,6 +711,8 @@ namespace dtn
 			/**
 			 * load static nodes
 			 */
+			_nodes.clear();
+
 			// read the node count
 			int count = 1;
 
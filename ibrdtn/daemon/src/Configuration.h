@@ -28,6 +28,7 @@
 #include <ibrcommon/Exceptions.h>
 #include <ibrcommon/net/vinterface.h>
 #include <map>
+#include <set>
 #include <list>
 #include <ibrcommon/thread/Timer.h>
 
@@ -98,6 +99,13 @@ namespace dtn
 			void load(bool quiet = false);
 			void load(const std::string &filename, bool quiet = false);
 
+			/**
+			 * apply changed keys to the loaded configuration
+			 * @param changed Keys with their new values
+			 * @param removed Keys which are not set anymore
+			 */
+			void update(const std::map<std::string, std::string> &changed, const std::set<std::string> &removed);
+
 			void params(int argc, char *argv[]);
 
 			/**
@@ -977,6 +985,9 @@ namespace dtn
 
 			std::string _filename;
 			bool _doapi;
+
+			// load all extensions from the current configuration
+			void loadExtensions();
 		};
 	}
 }
@@ -31,6 +31,8 @@
 #include <ibrdtn/utils/Utils.h>
 #include <ibrdtn/data/MemoryBundleSet.h>
 #include <list>
+#include <sstream>
+#include <cstring>
 
 #include "storage/BundleStorage.h"
 #include "storage/BundleSeeker.h"
@@ -144,7 +146,8 @@ namespace dtn
 		const std::string NativeDaemon::TAG = "NativeDaemon";
 
 		NativeDaemon::NativeDaemon(NativeDaemonCallback *statecb, NativeEventCallback *eventcb)
-		 : _runlevel(RUNLEVEL_ZERO), _statecb(statecb), _eventcb(eventcb), _event_loop(NULL)
+		 : _runlevel(RUNLEVEL_ZERO), _statecb(statecb), _eventcb(eventcb), _event_loop(NULL),
+		   _tcpcl(NULL), _ipnd(NULL), _routing_extension(-1)
 		{
 
 		}
@@ -550,6 +553,100 @@ namespace dtn
 			return ret;
 		}
 
+		/**
+		 * Layout of a stats snapshot, all values in native byte order
+		 *  header:  13 x 64 bit (timestamp, uptime, neighbors, storage size,
+		 *           clock offset and rating as double, clock adjustments,
+		 *           bundles stored, expired, transmitted, aborted, requeued, queued)
+		 *           32 bit number of entries, 32 bit padding
+		 *  entry:   32 bit convergence-layer id, 32 bit tag id, value as double
+		 */
+		static const size_t STATS_HEADER_LENGTH = 13 * sizeof(uint64_t) + 2 * sizeof(uint32_t);
+		static const size_t STATS_ENTRY_LENGTH = 2 * sizeof(uint32_t) + sizeof(double);
+
+		template<class T>
+		static char* stats_put(char *p, const T &value)
+		{
+			::memcpy(p, &value, sizeof(T));
+			return p + sizeof(T);
+		}
+
+		size_t NativeDaemon::getStatsSnapshot(char *snapshot, size_t capacity) throw ()
+		{
+			NativeStats stats = getStats();
+			const std::vector<std::string> &tags = stats.getTags();
+
+			const size_t length = STATS_HEADER_LENGTH + tags.size() * STATS_ENTRY_LENGTH;
+			if (length > capacity) return length;
+
+			char *p = snapshot;
+			p = stats_put<uint64_t>(p, stats.timestamp);
+			p = stats_put<uint64_t>(p, stats.uptime);
+			p = stats_put<uint64_t>(p, stats.neighbors);
+			p = stats_put<uint64_t>(p, stats.storage_size);
+			p = stats_put<double>(p, stats.time_offset);
+			p = stats_put<double>(p, stats.time_rating);
+			p = stats_put<uint64_t>(p, stats.time_adjustments);
+			p = stats_put<uint64_t>(p, stats.bundles_stored);
+			p = stats_put<uint64_t>(p, stats.bundles_expired);
+			p = stats_put<uint64_t>(p, stats.bundles_transmitted);
+			p = stats_put<uint64_t>(p, stats.bundles_aborted);
+			p = stats_put<uint64_t>(p, stats.bundles_requeued);
+			p = stats_put<uint64_t>(p, stats.bundles_queued);
+
+			// the number of entries is written once all values are parsed
+			char *count_field = p;
+			uint32_t count = 0;
+			p = stats_put<uint32_t>(p, 0);
+			p = stats_put<uint32_t>(p, 0);
+
+			for (size_t i = 0; i < tags.size(); ++i) {
+				// tags are formatted as "<convergence-layer>|<tag>"
+				const std::string &tag = tags[i];
+				const size_t delimiter = tag.find('|');
+
+				double value = 0.0;
+				std::istringstream ss(stats.getData(static_cast<int>(i)));
+				ss >> value;
+
+				// skip values which are not numeric
+				if (ss.fail()) continue;
+
+				if (delimiter == std::string::npos) {
+					p = stats_put<uint32_t>(p, getStatsId(tag));
+					p = stats_put<uint32_t>(p, getStatsId(""));
+				} else {
+					p = stats_put<uint32_t>(p, getStatsId(tag.substr(0, delimiter)));
+					p = stats_put<uint32_t>(p, getStatsId(tag.substr(delimiter + 1)));
+				}
+				p = stats_put<double>(p, value);
+				++count;
+			}
+
+			stats_put<uint32_t>(count_field, count);
+
+			return p - snapshot;
+		}
+
+		std::vector<std::string> NativeDaemon::getStatsNames() throw ()
+		{
+			ibrcommon::MutexLock l(_stats_lock);
+			return _stats_names;
+		}
+
+		uint32_t NativeDaemon::getStatsId(const std::string &name)
+		{
+			ibrcommon::MutexLock l(_stats_lock);
+
+			std::map<std::string, uint32_t>::const_iterator it = _stats_ids.find(name);
+			if (it != _stats_ids.end()) return it->second;
+
+			const uint32_t id = static_cast<uint32_t>(_stats_names.size());
+			_stats_names.push_back(name);
+			_stats_ids[name] = id;
+			return id;
+		}
+
 		NativeNode NativeDaemon::getInfo(const std::string &neighbor_eid) const throw (NativeDaemonException)
 		{
 			NativeNode nn(neighbor_eid);
@@ -795,6 +892,31 @@ namespace dtn
 			// reload bundle core configuration
 			dtn::core::BundleCore::getInstance().onConfigurationChanged(conf);
 
+#ifdef IBRDTN_SUPPORT_BSP
+			// initialize the key manager for the security extensions
+			dtn::security::SecurityKeyManager::getInstance().onConfigurationChanged( conf );
+#endif
+		}
+
+		void NativeDaemon::setConfigValues(const std::vector<std::string> &keys, const std::vector<std::string> &values, const std::vector<std::string> &removed)
+		{
+			std::map<std::string, std::string> changed;
+			for (size_t i = 0; (i < keys.size()) && (i < values.size()); ++i)
+			{
+				changed[keys[i]] = values[i];
+			}
+
+			const std::set<std::string> removed_set(removed.begin(), removed.end());
+
+			// apply the changes to the loaded configuration
+			dtn::daemon::Configuration &conf = dtn::daemon::Configuration::getInstance();
+			conf.update(changed, removed_set);
+
+			IBRCOMMON_LOGGER_DEBUG_TAG(NativeDaemon::TAG, 5) << (changed.size() + removed_set.size()) << " configuration keys changed" << IBRCOMMON_LOGGER_ENDL;
+
+			// reload bundle core configuration
+			dtn::core::BundleCore::getInstance().onConfigurationChanged(conf);
+
 #ifdef IBRDTN_SUPPORT_BSP
 			// initialize the key manager for the security extensions
 			dtn::security::SecurityKeyManager::getInstance().onConfigurationChanged( conf );
@@ -1395,8 +1517,11 @@ namespace dtn
 								if (it == _cl_map.end()) {
 									_components[RUNLEVEL_NETWORK].push_back(tcpcl);
 									_cl_map[net.type] = tcpcl;
+									_tcpcl = tcpcl;
 								}
 
+								_tcp_interfaces[net.iface] = net.port;
+
 								IBRCOMMON_LOGGER_TAG(NativeDaemon::TAG, info) << "TCP ConvergenceLayer added on " << net.iface.toString() << ":" << net.port << IBRCOMMON_LOGGER_ENDL;
 							} catch (const ibrcommon::Exception &ex) {
 								if (it == _cl_map.end()) {
@@ -1537,6 +1662,7 @@ namespace dtn
 				}
 
 				_components[RUNLEVEL_NETWORK].push_back(ipnd);
+				_ipnd = ipnd;
 			}
 			else
 			{
@@ -1592,6 +1718,94 @@ namespace dtn
 					}
 				} catch (const std::bad_cast&) { }
 			}
+
+			// the components are deleted with the runlevel
+			_tcpcl = NULL;
+			_ipnd = NULL;
+			_tcp_interfaces.clear();
+		}
+
+		bool NativeDaemon::reconfigureNetwork() throw ()
+		{
+			ibrcommon::MutexLock l(_runlevel_cond);
+
+			// the configuration is applied on the next start-up of the networking stack
+			if (_runlevel < RUNLEVEL_NETWORK) return true;
+
+			// a restart is required if there was no TCP convergence layer before
+			if (_tcpcl == NULL) return false;
+
+			// a convergence layer bound to any or loopback interfaces can not be changed per interface
+			for (std::map<ibrcommon::vinterface, int>::const_iterator iter = _tcp_interfaces.begin(); iter != _tcp_interfaces.end(); ++iter)
+			{
+				if (iter->first.isAny() || iter->first.isLoopback()) return false;
+			}
+
+			dtn::daemon::Configuration &conf = dtn::daemon::Configuration::getInstance();
+			const std::list<dtn::daemon::Configuration::NetConfig> &nets = conf.getNetwork().getInterfaces();
+
+			// collect the configured TCP interfaces
+			std::map<ibrcommon::vinterface, int> tcp_interfaces;
+			for (std::list<dtn::daemon::Configuration::NetConfig>::const_iterator iter = nets.begin(); iter != nets.end(); ++iter)
+			{
+				const dtn::daemon::Configuration::NetConfig &net = (*iter);
+
+				// only TCP interfaces can be changed at runtime
+				if (net.type != dtn::daemon::Configuration::NetConfig::NETWORK_TCP) return false;
+
+				// binding to any or loopback interfaces is not tracked per interface
+				if (net.iface.isAny() || net.iface.isLoopback()) return false;
+
+				tcp_interfaces[net.iface] = net.port;
+			}
+
+			// remove interfaces which are gone or changed their port
+			for (std::map<ibrcommon::vinterface, int>::const_iterator iter = _tcp_interfaces.begin(); iter != _tcp_interfaces.end(); ++iter)
+			{
+				std::map<ibrcommon::vinterface, int>::const_iterator it = tcp_interfaces.find(iter->first);
+				if ((it != tcp_interfaces.end()) && (it->second == iter->second)) continue;
+
+				_tcpcl->remove(iter->first);
+				if ((_ipnd != NULL) && (it == tcp_interfaces.end())) _ipnd->unbind(iter->first);
+
+				IBRCOMMON_LOGGER_TAG(NativeDaemon::TAG, info) << "TCP ConvergenceLayer removed from " << iter->first.toString() << IBRCOMMON_LOGGER_ENDL;
+			}
+
+			// add new interfaces
+			for (std::map<ibrcommon::vinterface, int>::const_iterator iter = tcp_interfaces.begin(); iter != tcp_interfaces.end(); ++iter)
+			{
+				std::map<ibrcommon::vinterface, int>::const_iterator it = _tcp_interfaces.find(iter->first);
+				if ((it != _tcp_interfaces.end()) && (it->second == iter->second)) continue;
+
+				_tcpcl->add(iter->first, iter->second);
+				if (_ipnd != NULL) _ipnd->bind(iter->first);
+
+				IBRCOMMON_LOGGER_TAG(NativeDaemon::TAG, info) << "TCP ConvergenceLayer added on " << iter->first.toString() << ":" << iter->second << IBRCOMMON_LOGGER_ENDL;
+			}
+
+			_tcp_interfaces = tcp_interfaces;
+			return true;
+		}
+
+		void NativeDaemon::reconfigureRouting() throw ()
+		{
+			ibrcommon::MutexLock l(_runlevel_cond);
+
+			// the configuration is applied on the next start-up of the routing extensions
+			if (_runlevel < RUNLEVEL_ROUTING_EXTENSIONS) return;
+
+			dtn::daemon::Configuration &conf = dtn::daemon::Configuration::getInstance();
+
+			// do not touch the routing if nothing has changed
+			if (_routing_extension == conf.getNetwork().getRoutingExtension()) return;
+
+			try {
+				// swap the routing extensions only, all connections stay up
+				shutdown_routing_extensions();
+				init_routing_extensions();
+			} catch (const NativeDaemonException &ex) {
+				IBRCOMMON_LOGGER_TAG(NativeDaemon::TAG, error) << "Failed to reconfigure routing: " << ex.what() << IBRCOMMON_LOGGER_ENDL;
+			}
 		}
 
 		void NativeDaemon::init_routing_extensions() throw (NativeDaemonException)
@@ -1667,6 +1881,9 @@ namespace dtn
 
 			// initialize all routing extensions
 			router.extensionsUp();
+
+			// remember the running routing extension
+			_routing_extension = conf.getNetwork().getRoutingExtension();
 		}
 
 		void NativeDaemon::shutdown_routing_extensions() const throw (NativeDaemonException)
@@ -49,6 +49,11 @@
 
 namespace dtn
 {
+	namespace net
+	{
+		class TCPConvergenceLayer;
+	}
+
 	namespace daemon
 	{
 		enum DaemonRunLevel {
@@ -224,6 +229,27 @@ namespace dtn
 			 */
 			void setConfigFile(const std::string &config_file);
 
+			/**
+			 * Apply single changed keys to the loaded daemon configuration
+			 * @param keys Keys which have been added or changed
+			 * @param values New values of the keys with the same index
+			 * @param removed Keys which have been removed
+			 */
+			void setConfigValues(const std::vector<std::string> &keys, const std::vector<std::string> &values, const std::vector<std::string> &removed);
+
+			/**
+			 * Apply changes of the configured interfaces to the running
+			 * networking stack without closing existing connections
+			 * @return False, if the changes require a restart of the networking stack
+			 */
+			bool reconfigureNetwork() throw ();
+
+			/**
+			 * Replace the routing extensions if the configured routing
+			 * differs from the running one
+			 */
+			void reconfigureRouting() throw ();
+
 			/** NATIVE DAEMON METHODS **/
 
 			/**
@@ -246,6 +272,21 @@ namespace dtn
 			 */
 			NativeStats getStats() throw ();
 
+			/**
+			 * Write a binary snapshot of the statistical data into the buffer
+			 * using the native byte order. Convergence-layer counters refer to
+			 * their convergence-layer and tag by ids, see getStatsNames(). Their
+			 * values are stored as double, non-numeric values are skipped.
+			 * @return The length of the snapshot. If it exceeds the capacity
+			 *         nothing has been written.
+			 */
+			size_t getStatsSnapshot(char *snapshot, size_t capacity) throw ();
+
+			/**
+			 * Get the names of convergence-layers and tags indexed by their id
+			 */
+			std::vector<std::string> getStatsNames() throw ();
+
 			/**
 			 * Add a static connection to the neighbor with the given EID
 			 */
@@ -393,6 +434,24 @@ namespace dtn
 			NativeEventLoop *_event_loop;
 
 			ibrcommon::File _config_file;
+
+			// components of the networking stack which support reconfiguration
+			dtn::net::TCPConvergenceLayer *_tcpcl;
+			dtn::net::IPNDAgent *_ipnd;
+			std::map<ibrcommon::vinterface, int> _tcp_interfaces;
+
+			// routing extension of the running daemon
+			int _routing_extension;
+
+			/**
+			 * Returns the id of a convergence-layer or tag name
+			 */
+			uint32_t getStatsId(const std::string &name);
+
+			// interned names of convergence-layers and tags
+			ibrcommon::Mutex _stats_lock;
+			std::map<std::string, uint32_t> _stats_ids;
+			std::vector<std::string> _stats_names;
 		};
 
 		class NativeEventLoop : public ibrcommon::JoinableThread {
@@ -20,6 +20,8 @@
  */
 
 #include "api/NativeSerializer.h"
+#include <unistd.h>
+#include <errno.h>
 
 namespace dtn
 {
@@ -68,6 +70,58 @@ namespace dtn
 			return std::char_traits<char>::not_eof(c);
 		}
 
+		NativeDescriptorStream::NativeDescriptorStream(int fd, NativeSerializerCallback &cb, const size_t length)
+		 : _output_buf(65536), _fd(fd), _callback(cb), _length(length), _written(0)
+		{
+			setp(&_output_buf[0], &_output_buf[65536 - 1]);
+		}
+
+		NativeDescriptorStream::~NativeDescriptorStream() {
+
+		}
+
+		int NativeDescriptorStream::sync()
+		{
+			int ret = std::char_traits<char>::eq_int_type(this->overflow(
+					std::char_traits<char>::eof()), std::char_traits<char>::eof()) ? -1
+					: 0;
+
+			return ret;
+		}
+
+		std::char_traits<char>::int_type NativeDescriptorStream::overflow(std::char_traits<char>::int_type c)
+		{
+			char *ibegin = &_output_buf[0];
+			char *iend = pptr();
+
+			// mark the buffer as free
+			setp(&_output_buf[0], &_output_buf[65536 - 1]);
+
+			if (!std::char_traits<char>::eq_int_type(c, std::char_traits<char>::eof()))
+			{
+				*iend++ = std::char_traits<char>::to_char_type(c);
+			}
+
+			// write all buffered data into the file descriptor
+			while (ibegin < iend)
+			{
+				const ssize_t ret = ::write(_fd, ibegin, (iend - ibegin));
+
+				if (ret < 0)
+				{
+					if (errno == EINTR) continue;
+					return std::char_traits<char>::eof();
+				}
+
+				ibegin += ret;
+				_written += ret;
+			}
+
+			_callback.progress(_written, _length);
+
+			return std::char_traits<char>::not_eof(c);
+		}
+
 		NativeSerializer::NativeSerializer(NativeSerializerCallback &cb, DataMode mode)
 		 : _callback(cb), _mode(mode) {
 
@@ -88,10 +142,23 @@ namespace dtn
 					if (_mode == BUNDLE_FULL)
 					{
 						dtn::data::Length len = 0;
-						NativeCallbackStream streambuf(_callback);
-						std::ostream stream(&streambuf);
-						block.serialize(stream, len);
-						stream << std::flush;
+						const int fd = _callback.descriptor();
+
+						if (fd >= 0)
+						{
+							// write the block data directly into the file descriptor
+							NativeDescriptorStream streambuf(fd, _callback, block.getLength());
+							std::ostream stream(&streambuf);
+							block.serialize(stream, len);
+							stream << std::flush;
+						}
+						else
+						{
+							NativeCallbackStream streambuf(_callback);
+							std::ostream stream(&streambuf);
+							block.serialize(stream, len);
+							stream << std::flush;
+						}
 					}
 
 					_callback.endBlock();
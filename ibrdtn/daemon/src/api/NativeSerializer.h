@@ -49,6 +49,28 @@ namespace dtn
 			NativeSerializerCallback &_callback;
 		};
 
+		class NativeDescriptorStream : public std::basic_streambuf<char, std::char_traits<char> > {
+		public:
+			NativeDescriptorStream(int fd, NativeSerializerCallback &cb, const size_t length);
+			virtual ~NativeDescriptorStream();
+
+		protected:
+			virtual int sync();
+			virtual std::char_traits<char>::int_type overflow(std::char_traits<char>::int_type = std::char_traits<char>::eof());
+
+		private:
+			// output buffer
+			std::vector<char> _output_buf;
+
+			// target file descriptor
+			const int _fd;
+
+			// progress reporting
+			NativeSerializerCallback &_callback;
+			const size_t _length;
+			size_t _written;
+		};
+
 		class NativeSerializer {
 		public:
 			enum DataMode {
@@ -28,5 +28,14 @@ namespace dtn
 		NativeSerializerCallback::~NativeSerializerCallback()
 		{
 		}
+
+		int NativeSerializerCallback::descriptor() throw ()
+		{
+			return -1;
+		}
+
+		void NativeSerializerCallback::progress(const size_t, const size_t) throw ()
+		{
+		}
 	}
 }
@@ -40,6 +40,22 @@ namespace dtn
 			virtual void endBlock() throw () = 0;
 
 			virtual void payload(const char *buf, const size_t len) throw () = 0;
+
+			/**
+			 * Returns a file descriptor for the payload of the current block.
+			 * If a valid descriptor is returned, the block data is written
+			 * directly into it and payload() is not called for this block.
+			 * The default implementation returns -1.
+			 */
+			virtual int descriptor() throw ();
+
+			/**
+			 * Reports the number of bytes written into or read from a file
+			 * descriptor. It is called once per buffer, the receiver decides
+			 * whether to forward it. A length of zero means the total length
+			 * is unknown. The default implementation does nothing.
+			 */
+			virtual void progress(const size_t current, const size_t length) throw ();
 		};
 	}
 }
@@ -30,10 +30,144 @@
 #include <ibrcommon/thread/RWLock.h>
 #include <ibrcommon/thread/MutexLock.h>
 
+#include <unistd.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <stdlib.h>
+#include <limits.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+
+#ifdef __ANDROID__
+#include <sys/ioctl.h>
+#include <linux/ashmem.h>
+#endif
+
 namespace dtn
 {
 	namespace api
 	{
+		/**
+		 * Create an anonymous shared memory region of the given size
+		 * and return its file descriptor, or -1 on failure.
+		 */
+		static int create_shared_region(const size_t size)
+		{
+#ifdef __ANDROID__
+			const int fd = ::open("/dev/ashmem", O_RDWR);
+			if (fd < 0) return -1;
+
+			if ((::ioctl(fd, ASHMEM_SET_NAME, "dtn-payload") < 0) || (::ioctl(fd, ASHMEM_SET_SIZE, size) < 0))
+			{
+				::close(fd);
+				return -1;
+			}
+#else
+			char name[] = "/tmp/dtn-payload-XXXXXX";
+			const int fd = ::mkstemp(name);
+			if (fd < 0) return -1;
+
+			// keep the region anonymous
+			::unlink(name);
+
+			if (::ftruncate(fd, size) < 0)
+			{
+				::close(fd);
+				return -1;
+			}
+#endif
+			return fd;
+		}
+
+		/**
+		 * Allow only read access to mappings of the shared memory region.
+		 */
+		static void seal_shared_region(const int fd)
+		{
+#ifdef __ANDROID__
+			::ioctl(fd, ASHMEM_SET_PROT_MASK, PROT_READ);
+#else
+			(void)fd;
+#endif
+		}
+
+		/**
+		 * Returns the size of an ashmem region or -1 if the descriptor
+		 * does not refer to an ashmem region.
+		 */
+		static ssize_t get_ashmem_size(const int fd)
+		{
+#ifdef __ANDROID__
+			return ::ioctl(fd, ASHMEM_GET_SIZE, NULL);
+#else
+			(void)fd;
+			return -1;
+#endif
+		}
+
+		NativeSessionDispatcher::NativeSessionDispatcher()
+		 : _aborted(false)
+		{
+		}
+
+		NativeSessionDispatcher::~NativeSessionDispatcher()
+		{
+		}
+
+		std::string NativeSessionDispatcher::next() throw (NativeSessionException)
+		{
+			ibrcommon::MutexLock l(_cond);
+
+			while (_ready.empty())
+			{
+				if (_aborted) throw NativeSessionException("loop aborted - dispatcher aborted");
+				_cond.wait();
+			}
+
+			const std::string handle = _ready.front();
+			_ready.pop_front();
+			_queued.erase(handle);
+			_running.insert(handle);
+
+			return handle;
+		}
+
+		void NativeSessionDispatcher::done(const std::string &handle) throw ()
+		{
+			ibrcommon::MutexLock l(_cond);
+			_running.erase(handle);
+
+			// queue again if signaled while running
+			if (_signaled.erase(handle) > 0)
+			{
+				_queued.insert(handle);
+				_ready.push_back(handle);
+				_cond.signal(false);
+			}
+		}
+
+		void NativeSessionDispatcher::signal(const std::string &handle) throw ()
+		{
+			ibrcommon::MutexLock l(_cond);
+
+			if (_running.find(handle) != _running.end())
+			{
+				_signaled.insert(handle);
+			}
+			else if (_queued.insert(handle).second)
+			{
+				_ready.push_back(handle);
+				_cond.signal(false);
+			}
+		}
+
+		void NativeSessionDispatcher::abort() throw ()
+		{
+			ibrcommon::MutexLock l(_cond);
+			_aborted = true;
+			_cond.signal(true);
+		}
+
 		NativeSessionCallback::~NativeSessionCallback()
 		{
 		}
@@ -41,7 +175,7 @@ namespace dtn
 		const std::string NativeSession::TAG = "NativeSession";
 
 		NativeSession::NativeSession(NativeSessionCallback *session_cb, NativeSerializerCallback *serializer_cb)
-		 : _receiver(*this), _session_cb(session_cb), _serializer_cb(serializer_cb)
+		 : _receiver(*this), _session_cb(session_cb), _serializer_cb(serializer_cb), _dispatcher(NULL)
 		{
 			// set the local endpoint to the default
 			_endpoint = _registration.getDefaultEID();
@@ -53,7 +187,7 @@ namespace dtn
 		}
 
 		NativeSession::NativeSession(NativeSessionCallback *session_cb, NativeSerializerCallback *serializer_cb, const std::string &handle)
-		 : _registration(handle), _receiver(*this), _session_cb(session_cb), _serializer_cb(serializer_cb)
+		 : _registration(handle), _receiver(*this), _session_cb(session_cb), _serializer_cb(serializer_cb), _dispatcher(NULL)
 		{
 			// set the local endpoint to the default
 			_endpoint = _registration.getDefaultEID();
@@ -81,9 +215,30 @@ namespace dtn
 			// un-listen from QueueBundleEvents
 			dtn::core::EventDispatcher<dtn::routing::QueueBundleEvent>::remove(&_receiver);
 
+			// detach from the dispatcher
+			setDispatcher(NULL);
+
 			_registration.abort();
 		}
 
+		void NativeSession::setDispatcher(NativeSessionDispatcher *dispatcher) throw ()
+		{
+			{
+				ibrcommon::MutexLock l(_dispatcher_mutex);
+				_dispatcher = dispatcher;
+			}
+
+			// bundles may be stored for this session already
+			signalDispatcher();
+		}
+
+		void NativeSession::signalDispatcher() throw ()
+		{
+			ibrcommon::MutexLock l(_dispatcher_mutex);
+			if (_dispatcher == NULL) return;
+			_dispatcher->signal(getHandle());
+		}
+
 		const dtn::data::EID& NativeSession::getNodeEID() const throw ()
 		{
 			return dtn::core::BundleCore::local;
@@ -127,6 +282,7 @@ namespace dtn
 
 				// subscribe to new endpoint
 				_registration.subscribe(_endpoint);
+				signalDispatcher();
 			}
 
 			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << "Endpoint set to " << _endpoint.getString() << IBRCOMMON_LOGGER_ENDL;
@@ -137,6 +293,7 @@ namespace dtn
 			_registration.unsubscribe(_endpoint);
 			_endpoint = _registration.getDefaultEID();
 			_registration.subscribe(_endpoint);
+			signalDispatcher();
 
 			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << "Endpoint set to " << _endpoint.getString() << IBRCOMMON_LOGGER_ENDL;
 		}
@@ -153,6 +310,7 @@ namespace dtn
 				dtn::data::EID new_endpoint = dtn::core::BundleCore::local;
 				new_endpoint.setApplication( suffix );
 				_registration.subscribe(new_endpoint);
+				signalDispatcher();
 			}
 
 			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << "Endpoint " << suffix << " added" << IBRCOMMON_LOGGER_ENDL;
@@ -185,6 +343,7 @@ namespace dtn
 			else
 			{
 				_registration.subscribe(eid);
+				signalDispatcher();
 			}
 
 			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << "Registration " << eid.getString() << " added" << IBRCOMMON_LOGGER_ENDL;
@@ -205,6 +364,41 @@ namespace dtn
 			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << "Registration " << eid.getString() << " removed" << IBRCOMMON_LOGGER_ENDL;
 		}
 
+		void NativeSession::addRegistrations(const std::vector<std::string> &eids) throw (NativeSessionException)
+		{
+			std::set<dtn::data::EID> endpoints;
+
+			// error checking
+			for (std::vector<std::string>::const_iterator it = eids.begin(); it != eids.end(); ++it)
+			{
+				const dtn::data::EID eid(*it);
+				if (eid == dtn::data::EID()) throw NativeSessionException("given endpoint is not acceptable");
+				endpoints.insert(eid);
+			}
+
+			for (std::set<dtn::data::EID>::const_iterator it = endpoints.begin(); it != endpoints.end(); ++it)
+			{
+				_registration.subscribe(*it);
+			}
+
+			// signal once for all new registrations
+			if (!endpoints.empty()) signalDispatcher();
+
+			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << endpoints.size() << " registrations added" << IBRCOMMON_LOGGER_ENDL;
+		}
+
+		void NativeSession::removeRegistrations(const std::vector<std::string> &eids) throw (NativeSessionException)
+		{
+			for (std::vector<std::string>::const_iterator it = eids.begin(); it != eids.end(); ++it)
+			{
+				const dtn::data::EID eid(*it);
+				if (eid == dtn::data::EID()) continue;
+				_registration.unsubscribe(eid);
+			}
+
+			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << eids.size() << " registrations removed" << IBRCOMMON_LOGGER_ENDL;
+		}
+
 		void NativeSession::clearRegistration() throw ()
 		{
 			resetEndpoint();
@@ -303,6 +497,30 @@ namespace dtn
 			}
 		}
 
+		void NativeSession::get(RegisterIndex ri, NativeSerializerCallback &cb) throw ()
+		{
+			ibrcommon::MutexLock l(_cb_mutex);
+
+			NativeSerializer serializer(cb, NativeSerializer::BUNDLE_FULL);
+			try {
+				serializer << _bundle[ri];
+			} catch (const ibrcommon::Exception &ex) {
+				IBRCOMMON_LOGGER_TAG(NativeSession::TAG, error) << "Get failed " << ex.what() << IBRCOMMON_LOGGER_ENDL;
+			}
+		}
+
+		void NativeSession::getInfo(RegisterIndex ri, NativeSerializerCallback &cb) throw ()
+		{
+			ibrcommon::MutexLock l(_cb_mutex);
+
+			NativeSerializer serializer(cb, NativeSerializer::BUNDLE_INFO);
+			try {
+				serializer << _bundle[ri];
+			} catch (const ibrcommon::Exception &ex) {
+				IBRCOMMON_LOGGER_TAG(NativeSession::TAG, error) << "Get failed " << ex.what() << IBRCOMMON_LOGGER_ENDL;
+			}
+		}
+
 		void NativeSession::free(RegisterIndex ri) throw (BundleNotFoundException)
 		{
 			try {
@@ -331,6 +549,30 @@ namespace dtn
 			}
 		}
 
+		size_t NativeSession::delivered(const std::vector<dtn::data::BundleID> &ids) const throw ()
+		{
+			dtn::storage::BundleStorage &storage = dtn::core::BundleCore::getInstance().getStorage();
+			size_t ret = 0;
+
+			for (std::vector<dtn::data::BundleID>::const_iterator it = ids.begin(); it != ids.end(); ++it)
+			{
+				const dtn::data::BundleID &id = (*it);
+
+				try {
+					// announce this bundle as delivered
+					const dtn::data::MetaBundle meta = storage.info(id);
+					_registration.delivered(meta);
+					++ret;
+				} catch (const ibrcommon::Exception&) {
+					IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 15) << "Bundle " << id.toString() << " not found" << IBRCOMMON_LOGGER_ENDL;
+				}
+			}
+
+			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << ret << " of " << ids.size() << " bundles marked as delivered" << IBRCOMMON_LOGGER_ENDL;
+
+			return ret;
+		}
+
 		dtn::data::BundleID NativeSession::send(RegisterIndex ri) throw ()
 		{
 			// forward the bundle to the storage processing
@@ -341,6 +583,13 @@ namespace dtn
 			return _bundle[ri];
 		}
 
+		dtn::data::BundleID NativeSession::send(RegisterIndex ri, const dtn::data::PrimaryBlock &p, const char *buf, const size_t len) throw ()
+		{
+			put(ri, p);
+			write(ri, buf, len);
+			return send(ri);
+		}
+
 		void NativeSession::put(RegisterIndex ri, const dtn::data::Bundle &b) throw ()
 		{
 			// Copy the given bundle into the local register
@@ -394,6 +643,179 @@ namespace dtn
 			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 25) << len << " bytes added to the payload" << IBRCOMMON_LOGGER_ENDL;
 		}
 
+		size_t NativeSession::write(RegisterIndex ri, int fd) throw (NativeSessionException)
+		{
+			return write(ri, fd, NULL);
+		}
+
+		size_t NativeSession::write(RegisterIndex ri, int fd, NativeSerializerCallback &cb) throw (NativeSessionException)
+		{
+			return write(ri, fd, &cb);
+		}
+
+		size_t NativeSession::write(RegisterIndex ri, int fd, NativeSerializerCallback *cb) throw (NativeSessionException)
+		{
+			dtn::data::PayloadBlock *payload = NULL;
+
+			try {
+				payload = &_bundle[ri].find<dtn::data::PayloadBlock>();
+			} catch (const dtn::data::Bundle::NoSuchBlockFoundException&) {
+				payload = &_bundle[ri].push_back<dtn::data::PayloadBlock>();
+			}
+
+			ibrcommon::BLOB::Reference ref = payload->getBLOB();
+			ibrcommon::BLOB::iostream stream = ref.iostream();
+
+			(*stream).seekp(0, std::ios_base::end);
+
+			std::vector<char> buf(65536);
+			size_t len = 0;
+
+			while (true)
+			{
+				const ssize_t ret = ::read(fd, &buf[0], buf.size());
+
+				// end of stream reached
+				if (ret == 0) break;
+
+				if (ret < 0)
+				{
+					if (errno == EINTR) continue;
+					throw NativeSessionException("failed to read from file descriptor");
+				}
+
+				(*stream).write(&buf[0], ret);
+				len += ret;
+
+				if (cb != NULL) cb->progress(len, 0);
+			}
+
+			(*stream) << std::flush;
+
+			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 25) << len << " bytes added to the payload" << IBRCOMMON_LOGGER_ENDL;
+
+			return len;
+		}
+
+		int NativeSession::share(RegisterIndex ri, size_t &len) throw (NativeSessionException)
+		{
+			dtn::data::PayloadBlock *payload = NULL;
+
+			try {
+				payload = &_bundle[ri].find<dtn::data::PayloadBlock>();
+			} catch (const dtn::data::Bundle::NoSuchBlockFoundException&) {
+				throw NativeSessionException("no payload block available");
+			}
+
+			ibrcommon::BLOB::Reference ref = payload->getBLOB();
+			ibrcommon::BLOB::iostream stream = ref.iostream();
+
+			len = stream.size();
+
+			// a region of zero bytes can not be mapped
+			const int fd = create_shared_region(len > 0 ? len : 1);
+			if (fd < 0) throw NativeSessionException("failed to create shared memory region");
+
+			if (len > 0)
+			{
+				void *region = ::mmap(NULL, len, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+
+				if (region == MAP_FAILED)
+				{
+					::close(fd);
+					throw NativeSessionException("failed to map shared memory region");
+				}
+
+				// copy the payload into the region in one pass
+				(*stream).seekg(0, std::ios_base::beg);
+				(*stream).read(static_cast<char*>(region), len);
+				const bool failed = (*stream).fail();
+
+				::munmap(region, len);
+
+				if (failed)
+				{
+					::close(fd);
+					throw NativeSessionException("failed to copy the payload into the shared memory region");
+				}
+			}
+
+			seal_shared_region(fd);
+
+			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 25) << len << " bytes of payload shared" << IBRCOMMON_LOGGER_ENDL;
+
+			return fd;
+		}
+
+		size_t NativeSession::writeShared(RegisterIndex ri, int fd, const size_t len) throw (NativeSessionException)
+		{
+			// a negative length of the client wraps around to a huge value
+			if ((len == 0) || (len > static_cast<size_t>(SSIZE_MAX)))
+				throw NativeSessionException("invalid length of the shared memory region");
+
+			// the size of an ashmem region is fixed, other descriptors are read
+			// instead of mapped since they may shrink while they are mapped
+			const ssize_t ashmem_size = get_ashmem_size(fd);
+
+			if (ashmem_size < 0)
+			{
+				struct stat st;
+				if ((::fstat(fd, &st) < 0) || !S_ISREG(st.st_mode))
+					throw NativeSessionException("descriptor is no shared memory region");
+
+				if (len > static_cast<size_t>(st.st_size))
+					throw NativeSessionException("length exceeds the shared memory region");
+			}
+			else if (len > static_cast<size_t>(ashmem_size))
+			{
+				throw NativeSessionException("length exceeds the shared memory region");
+			}
+
+			dtn::data::PayloadBlock *payload = NULL;
+
+			try {
+				payload = &_bundle[ri].find<dtn::data::PayloadBlock>();
+			} catch (const dtn::data::Bundle::NoSuchBlockFoundException&) {
+				payload = &_bundle[ri].push_back<dtn::data::PayloadBlock>();
+			}
+
+			ibrcommon::BLOB::Reference ref = payload->getBLOB();
+			ibrcommon::BLOB::iostream stream = ref.iostream();
+
+			(*stream).seekp(0, std::ios_base::end);
+
+			if (ashmem_size < 0)
+			{
+				std::vector<char> buf(65536);
+				size_t offset = 0;
+
+				while (offset < len)
+				{
+					const ssize_t ret = ::pread(fd, &buf[0], std::min(buf.size(), len - offset), offset);
+
+					if ((ret < 0) && (errno == EINTR)) continue;
+					if (ret <= 0) throw NativeSessionException("failed to read the shared memory region");
+
+					(*stream).write(&buf[0], ret);
+					offset += ret;
+				}
+			}
+			else
+			{
+				void *region = ::mmap(NULL, len, PROT_READ, MAP_SHARED, fd, 0);
+				if (region == MAP_FAILED) throw NativeSessionException("failed to map shared memory region");
+
+				(*stream).write(static_cast<const char*>(region), len);
+				::munmap(region, len);
+			}
+
+			(*stream) << std::flush;
+
+			IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 25) << len << " bytes added to the payload from shared memory" << IBRCOMMON_LOGGER_ENDL;
+
+			return len;
+		}
+
 		void NativeSession::read(RegisterIndex ri, char *buf, size_t &len, const size_t offset) throw ()
 		{
 			try {
@@ -429,6 +851,7 @@ namespace dtn
 			if (_session._registration.hasSubscribed(queued.bundle.destination))
 			{
 				_session._registration.notify(Registration::NOTIFY_BUNDLE_AVAILABLE);
+				_session.signalDispatcher();
 			}
 		}
 
@@ -437,23 +860,7 @@ namespace dtn
 			Registration &reg = _registration;
 			try {
 				try {
-					const dtn::data::MetaBundle id = reg.receiveMetaBundle();
-
-					if (id.procflags & dtn::data::PrimaryBlock::APPDATA_IS_ADMRECORD) {
-						// transform custody signals & status reports into notifies
-						fireNotificationAdministrativeRecord(id);
-
-						// announce the delivery of this bundle
-						reg.delivered(id);
-					} else {
-						IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << "fire notification for new bundle " << id.toString() << IBRCOMMON_LOGGER_ENDL;
-
-						// put the bundle into the API queue
-						_bundle_queue.push(id);
-
-						// notify the client about the new bundle
-						fireNotificationBundle(id);
-					}
+					process(reg.receiveMetaBundle());
 				} catch (const dtn::storage::NoBundleFoundException&) {
 					IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 25) << "no more bundles found - wait until we are notified" << IBRCOMMON_LOGGER_ENDL;
 					reg.wait_for_bundle();
@@ -465,6 +872,42 @@ namespace dtn
 			}
 		}
 
+		bool NativeSession::poll() throw (NativeSessionException)
+		{
+			try {
+				try {
+					process(_registration.receiveMetaBundle());
+					return true;
+				} catch (const dtn::storage::NoBundleFoundException&) {
+					IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 25) << "no more bundles found - wait until the dispatcher is signaled" << IBRCOMMON_LOGGER_ENDL;
+					return false;
+				}
+			} catch (const ibrcommon::QueueUnblockedException &ex) {
+				throw NativeSessionException(std::string("loop aborted - ") + ex.what());
+			} catch (const std::exception &ex) {
+				throw NativeSessionException(std::string("loop aborted - ") + ex.what());
+			}
+		}
+
+		void NativeSession::process(const dtn::data::MetaBundle &id)
+		{
+			if (id.procflags & dtn::data::PrimaryBlock::APPDATA_IS_ADMRECORD) {
+				// transform custody signals & status reports into notifies
+				fireNotificationAdministrativeRecord(id);
+
+				// announce the delivery of this bundle
+				_registration.delivered(id);
+			} else {
+				IBRCOMMON_LOGGER_DEBUG_TAG(NativeSession::TAG, 20) << "fire notification for new bundle " << id.toString() << IBRCOMMON_LOGGER_ENDL;
+
+				// put the bundle into the API queue
+				_bundle_queue.push(id);
+
+				// notify the client about the new bundle
+				fireNotificationBundle(id);
+			}
+		}
+
 		void NativeSession::fireNotificationAdministrativeRecord(const dtn::data::MetaBundle &bundle)
 		{
 			// load the whole bundle
@@ -33,7 +33,10 @@
 #include <ibrcommon/thread/Queue.h>
 #include <ibrcommon/thread/RWMutex.h>
 #include <ibrcommon/thread/Mutex.h>
+#include <ibrcommon/thread/Conditional.h>
 #include <ibrcommon/Exceptions.h>
+#include <deque>
+#include <set>
 
 namespace dtn
 {
@@ -55,6 +58,47 @@ namespace dtn
 			};
 		};
 
+		/**
+		 * Multiplexes the bundle queues of many sessions onto a fixed number
+		 * of receiver threads. A session signals its handle if bundles are
+		 * available. A handle is never handed out to two threads at a time.
+		 */
+		class NativeSessionDispatcher {
+		public:
+			NativeSessionDispatcher();
+			virtual ~NativeSessionDispatcher();
+
+			/**
+			 * Block until a session has work and return its handle. The caller
+			 * has to call done() with the handle once the work is finished.
+			 */
+			std::string next() throw (NativeSessionException);
+
+			/**
+			 * Mark the work on a session as finished. If the session has been
+			 * signaled meanwhile, it is queued again.
+			 */
+			void done(const std::string &handle) throw ();
+
+			/**
+			 * Queue the session with the given handle.
+			 */
+			void signal(const std::string &handle) throw ();
+
+			/**
+			 * Unblock all threads waiting in next().
+			 */
+			void abort() throw ();
+
+		private:
+			ibrcommon::Conditional _cond;
+			std::deque<std::string> _ready;
+			std::set<std::string> _queued;
+			std::set<std::string> _running;
+			std::set<std::string> _signaled;
+			bool _aborted;
+		};
+
 		class NativeSessionCallback {
 		public:
 			/**
@@ -88,9 +132,20 @@ namespace dtn
 		public:
 			enum RegisterIndex {
 				REG1 = 0,
-				REG2 = 1
+				REG2 = 1,
+				REG3 = 2,
+				REG4 = 3,
+				REG5 = 4,
+				REG6 = 5,
+				REG7 = 6,
+				REG8 = 7
 			};
 
+			/**
+			 * Number of local bundle registers
+			 */
+			static const size_t REGISTER_COUNT = 8;
+
 			/**
 			 * Constructor of the native session
 			 * @param cb A callback object for notifications. May be NULL.
@@ -152,6 +207,17 @@ namespace dtn
 			 */
 			void removeRegistration(const dtn::data::EID &eid) throw (NativeSessionException);
 
+			/**
+			 * Add many endpoint identifiers to the registration at once. If one of
+			 * the identifiers is not acceptable, none of them is added.
+			 */
+			void addRegistrations(const std::vector<std::string> &eids) throw (NativeSessionException);
+
+			/**
+			 * Remove many endpoint identifiers from the registration at once
+			 */
+			void removeRegistrations(const std::vector<std::string> &eids) throw (NativeSessionException);
+
 			/**
 			 * Removes all registrations and reset the default endpoint to the unique registration identifier
 			 */
@@ -178,11 +244,23 @@ namespace dtn
 			 */
 			void get(RegisterIndex ri) throw ();
 
+			/**
+			 * Return the bundle in the register using the callback given
+			 * for this call only
+			 */
+			void get(RegisterIndex ri, NativeSerializerCallback &cb) throw ();
+
 			/**
 			 * Return the bundle skeleton in the register using the given callback
 			 */
 			void getInfo(RegisterIndex ri) throw ();
 
+			/**
+			 * Return the bundle skeleton in the register using the callback
+			 * given for this call only
+			 */
+			void getInfo(RegisterIndex ri, NativeSerializerCallback &cb) throw ();
+
 			/**
 			 * Delete the bundle in the local register from the storage
 			 */
@@ -198,11 +276,27 @@ namespace dtn
 			 */
 			void delivered(const dtn::data::BundleID &id) const throw (BundleNotFoundException);
 
+			/**
+			 * Mark all bundles with the given IDs as delivered.
+			 * @return The number of bundles marked as delivered.
+			 */
+			size_t delivered(const std::vector<dtn::data::BundleID> &ids) const throw ();
+
 			/**
 			 * Send the bundle in the local register
 			 */
 			dtn::data::BundleID send(RegisterIndex ri) throw ();
 
+			/**
+			 * Copy the PrimaryBlock and the payload into the local register
+			 * and send the bundle in one call
+			 * @param ri Index to tell which bundle register to use.
+			 * @param p The primary block of the new bundle.
+			 * @param buf Payload to copy.
+			 * @param len The number of bytes to copy.
+			 */
+			dtn::data::BundleID send(RegisterIndex ri, const dtn::data::PrimaryBlock &p, const char *buf, const size_t len) throw ();
+
 			/**
 			 * Copy the given bundle into the local register
 			 */
@@ -224,6 +318,45 @@ namespace dtn
 			 */
 			void write(RegisterIndex ri, const char *buf, const size_t len, const size_t offset = std::string::npos) throw ();
 
+			/**
+			 * Read all data from the file descriptor until the end of the
+			 * stream is reached and append it to the payload block of the bundle
+			 * in the register. If there is no payload block, this method will
+			 * append a new one at the end of all blocks.
+			 * @param ri Index to tell which bundle register to use.
+			 * @param fd File descriptor to read from.
+			 * @return The number of bytes copied.
+			 */
+			size_t write(RegisterIndex ri, int fd) throw (NativeSessionException);
+
+			/**
+			 * Same as write(ri, fd), but reports the number of bytes copied
+			 * to the progress() method of the callback after each chunk.
+			 * @param cb Callback to report the progress to.
+			 */
+			size_t write(RegisterIndex ri, int fd, NativeSerializerCallback &cb) throw (NativeSessionException);
+
+			/**
+			 * Copy the payload of the bundle in the register into a new shared
+			 * memory region in one pass. The region can be mapped read-only only.
+			 * @param ri Index to tell which bundle register to use.
+			 * @param len Is set to the size of the payload in the region.
+			 * @return A file descriptor of the region. The caller has to close it.
+			 */
+			int share(RegisterIndex ri, size_t &len) throw (NativeSessionException);
+
+			/**
+			 * Copy <len> bytes of a shared memory region and append them to the
+			 * payload block of the bundle in the register. If there is no payload
+			 * block, this method will append a new one at the end of all blocks.
+			 * @param ri Index to tell which bundle register to use.
+			 * @param fd File descriptor of an ashmem region or a regular file.
+			 * @param len Number of bytes to copy from the region, at least one
+			 *            and not more than the size of the region.
+			 * @return The number of bytes copied.
+			 */
+			size_t writeShared(RegisterIndex ri, int fd, const size_t len) throw (NativeSessionException);
+
 			/**
 			 * Read max. <len> bytes from the payload block in the bundle. If there
 			 * is no payload block available the read method will set len = 0 and return.
@@ -241,6 +374,19 @@ namespace dtn
 			 */
 			void receive() throw (NativeSessionException);
 
+			/**
+			 * Attach the session to a dispatcher or detach it if NULL. The session
+			 * signals the dispatcher if bundles are available. Then poll() should
+			 * be called instead of running receive() in a dedicated thread.
+			 */
+			void setDispatcher(NativeSessionDispatcher *dispatcher) throw ();
+
+			/**
+			 * Process the next queued bundle without blocking.
+			 * @return False, if there is no bundle available.
+			 */
+			bool poll() throw (NativeSessionException);
+
 			/**
 			 * Return the handle of this session
 			 */
@@ -282,6 +428,22 @@ namespace dtn
 			 */
 			void fireNotificationCustodySignal(const dtn::data::EID &source, const dtn::data::CustodySignalBlock &custody) throw ();
 
+			/**
+			 * Append the data of the file descriptor to the payload and
+			 * report the progress to the callback if it is not NULL.
+			 */
+			size_t write(RegisterIndex ri, int fd, NativeSerializerCallback *cb) throw (NativeSessionException);
+
+			/**
+			 * Notify the client about a bundle received by the registration
+			 */
+			void process(const dtn::data::MetaBundle &id);
+
+			/**
+			 * Signal the attached dispatcher that bundles are available
+			 */
+			void signalDispatcher() throw ();
+
 			// callback
 			ibrcommon::RWMutex _cb_mutex;
 			NativeSessionCallback *_session_cb;
@@ -291,10 +453,14 @@ namespace dtn
 			dtn::data::EID _endpoint;
 
 			// local bundle register
-			dtn::data::Bundle _bundle[2];
+			dtn::data::Bundle _bundle[REGISTER_COUNT];
 
 			// local bundle queue
 			ibrcommon::Queue<dtn::data::BundleID> _bundle_queue;
+
+			// attached dispatcher
+			ibrcommon::Mutex _dispatcher_mutex;
+			NativeSessionDispatcher *_dispatcher;
 		};
 	} /* namespace net */
 } /* namespace dtn */
@@ -83,6 +83,23 @@ namespace dtn
 			if (_state) join(net);
 		}
 
+		void IPNDAgent::unbind(const ibrcommon::vinterface &net)
+		{
+			// remove the interface from the stored set
+			ibrcommon::MutexLock l(_interface_lock);
+
+			// only remove known interfaces
+			if (_interfaces.find(net) == _interfaces.end()) return;
+
+			IBRCOMMON_LOGGER_TAG(TAG, info) << "stop advertising on interface " << net.toString() << IBRCOMMON_LOGGER_ENDL;
+
+			// remove the interface from the list of interfaces
+			_interfaces.erase(net);
+
+			// leave immediately if the component is up
+			if (_state) leave(net);
+		}
+
 		void IPNDAgent::join(const ibrcommon::vinterface &iface) throw ()
 		{
 			// register as discovery handler for this interface
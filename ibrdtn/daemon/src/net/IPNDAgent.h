@@ -52,6 +52,7 @@ namespace dtn
 
 			void add(const ibrcommon::vaddress &address);
 			void bind(const ibrcommon::vinterface &net);
+			void unbind(const ibrcommon::vinterface &net);
 
 			/**
 			 * @see Component::getName()
@@ -93,6 +93,28 @@ namespace dtn
 			}
 		}
 
+		void TCPConvergenceLayer::remove(const ibrcommon::vinterface &net) throw ()
+		{
+			// remove the interface from internal data-structures
+			{
+				ibrcommon::MutexLock l(_interface_lock);
+
+				// only remove known interfaces
+				if (_interfaces.find(net) == _interfaces.end()) return;
+
+				_interfaces.erase(net);
+			}
+
+			// un-subscribe from NetLink events of this interface
+			ibrcommon::LinkManager::getInstance().removeEventListener(net, this);
+
+			// un-register as discovery handler for this interface
+			dtn::core::BundleCore::getInstance().getDiscoveryAgent().unregisterService(net, this);
+
+			// close all server sockets of this interface
+			unlisten(net);
+		}
+
 		void TCPConvergenceLayer::listen(const ibrcommon::vinterface &net, int port) throw ()
 		{
 			try {
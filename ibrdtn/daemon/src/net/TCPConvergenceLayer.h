@@ -74,6 +74,13 @@ namespace dtn
 			 */
 			void add(const ibrcommon::vinterface &net, int port) throw ();
 
+			/**
+			 * Remove an interface from this convergence layer. Established
+			 * connections are not affected.
+			 * @param net Interface to remove
+			 */
+			void remove(const ibrcommon::vinterface &net) throw ();
+
 			/**
 			 * Queue a new transmission job for this convergence layer.
 			 * @param job